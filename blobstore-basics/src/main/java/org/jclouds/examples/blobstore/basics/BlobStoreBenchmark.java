@@ -0,0 +1,337 @@
+/**
+ *
+ * Copyright (C) 2010 Cloud Conscious, LLC. <info@cloudconscious.com>
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.jclouds.examples.blobstore.basics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Iterables.contains;
+import static org.jclouds.blobstore.options.ListContainerOptions.Builder.maxResults;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.Blob;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+/**
+ * Runs a configurable PUT/GET/LIST/DELETE mix against any {@link BlobStore} provider or api in
+ * {@link MainApp#allKeys} and reports ops/s and latency percentiles for each operation.
+ *
+ * Usage is: java BlobStoreBenchmark \"provider\" \"identity\" \"credential\" \"containerName\"
+ * [operations] [objectSizeBytes] [concurrency] [mix]
+ *
+ * The mix is a comma separated list of weights, for example \"put=40,get=40,list=10,delete=10\".
+ *
+ * The {@code transient} and {@code filesystem} providers need no account and are useful as local
+ * baselines; any identity and credential will do.
+ */
+public class BlobStoreBenchmark {
+
+   public static int PARAMETERS = 4;
+   public static String INVALID_SYNTAX = "Invalid number of parameters. Syntax is: \"provider\" \"identity\" \"credential\" \"containerName\" [operations] [objectSizeBytes] [concurrency] [mix]";
+
+   public static final int DEFAULT_OPERATIONS = 1000;
+   public static final int DEFAULT_OBJECT_SIZE = 4 * 1024;
+   public static final int DEFAULT_CONCURRENCY = 8;
+   public static final String DEFAULT_MIX = "put=40,get=40,list=10,delete=10";
+
+   // the filesystem provider keeps its blobs below this directory
+   private static final String PROPERTY_FILESYSTEM_BASEDIR = "jclouds.filesystem.basedir";
+
+   enum Operation {
+      PUT, GET, LIST, DELETE
+   }
+
+   private final BlobStore blobStore;
+   private final String containerName;
+   private final byte[] data;
+   private final Map<Operation, Integer> weights;
+   private final int totalWeight;
+
+   // objects written during the warm up, never deleted, so GET always finds something to read
+   private final int preloaded;
+   // objects written by PUT operations, candidates for DELETE
+   private final BlockingQueue<String> deletable = new LinkedBlockingQueue<String>();
+   private final AtomicInteger sequence = new AtomicInteger();
+   private final Map<Operation, LatencyRecorder> recorders = Maps.newEnumMap(Operation.class);
+
+   public static void main(String[] args) throws InterruptedException {
+
+      if (args.length < PARAMETERS)
+         throw new IllegalArgumentException(INVALID_SYNTAX);
+
+      // Args
+
+      String provider = args[0];
+      checkArgument(contains(MainApp.allKeys, provider), "provider %s not in supported list: %s", provider,
+            MainApp.allKeys);
+
+      String identity = args[1];
+      String credential = args[2];
+      String containerName = args[3];
+      int operations = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_OPERATIONS;
+      int objectSize = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_OBJECT_SIZE;
+      int concurrency = args.length > 6 ? Integer.parseInt(args[6]) : DEFAULT_CONCURRENCY;
+      String mix = args.length > 7 ? args[7] : DEFAULT_MIX;
+
+      checkArgument(operations > 0, "operations must be positive");
+      checkArgument(concurrency > 0, "concurrency must be positive");
+
+      // Init
+      Properties overrides = new Properties();
+      if ("filesystem".equals(provider)) {
+         File baseDir = new File(System.getProperty("java.io.tmpdir"), "jclouds-benchmark");
+         overrides.setProperty(PROPERTY_FILESYSTEM_BASEDIR, baseDir.getAbsolutePath());
+      }
+
+      BlobStoreContext context = ContextBuilder.newBuilder(provider)
+                                               .credentials(identity, credential)
+                                               .overrides(overrides)
+                                               .buildView(BlobStoreContext.class);
+
+      try {
+         BlobStore blobStore = context.getBlobStore();
+         blobStore.createContainerInLocation(null, containerName);
+
+         BlobStoreBenchmark benchmark = new BlobStoreBenchmark(blobStore, containerName, objectSize,
+               parseMix(mix), operations, concurrency);
+
+         System.out.printf("Benchmarking %s: %d operations of %d bytes with %d threads (%s)%n", provider,
+               operations, objectSize, concurrency, mix);
+         benchmark.warmUp();
+         long elapsed = benchmark.run(operations, concurrency);
+         benchmark.report(operations, elapsed);
+      } finally {
+         // Close connecton
+         context.close();
+         System.exit(0);
+      }
+   }
+
+   BlobStoreBenchmark(BlobStore blobStore, String containerName, int objectSize, Map<Operation, Integer> weights,
+         int operations, int concurrency) {
+      this.blobStore = blobStore;
+      this.containerName = containerName;
+      this.data = new byte[objectSize];
+      new Random().nextBytes(data);
+      this.weights = weights;
+      int total = 0;
+      for (Integer weight : weights.values())
+         total += weight;
+      checkArgument(total > 0, "mix must have at least one positive weight: %s", weights);
+      this.totalWeight = total;
+      this.preloaded = concurrency * 4;
+      for (Operation operation : Operation.values())
+         recorders.put(operation, new LatencyRecorder(operations));
+   }
+
+   /**
+    * Parses weights like \"put=40,get=40,list=10,delete=10\"; operations left out get no weight.
+    */
+   static Map<Operation, Integer> parseMix(String mix) {
+      Map<Operation, Integer> weights = Maps.newEnumMap(Operation.class);
+      for (Map.Entry<String, String> entry : Splitter.on(',').trimResults().omitEmptyStrings()
+            .withKeyValueSeparator("=").split(mix).entrySet()) {
+         int weight = Integer.parseInt(entry.getValue());
+         checkArgument(weight >= 0, "weight of %s must not be negative", entry.getKey());
+         weights.put(Operation.valueOf(entry.getKey().toUpperCase()), weight);
+      }
+      return weights;
+   }
+
+   /**
+    * Writes the objects read by GET, so reads never miss and the first timed operations don't pay for
+    * connection setup.
+    */
+   void warmUp() {
+      for (int i = 0; i < preloaded; i++) {
+         blobStore.putBlob(containerName, newBlob(preloadedName(i)));
+      }
+   }
+
+   /**
+    * @return the wall clock time taken by all operations in nanoseconds
+    */
+   long run(int operations, int concurrency) throws InterruptedException {
+      final AtomicInteger remaining = new AtomicInteger(operations);
+      ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+      long start = System.nanoTime();
+
+      for (int i = 0; i < concurrency; i++) {
+         executor.execute(new Runnable() {
+            @Override
+            public void run() {
+               Random random = new Random();
+               while (remaining.getAndDecrement() > 0) {
+                  Operation operation = pick(random);
+                  long begin = System.nanoTime();
+                  try {
+                     operation = execute(operation, random);
+                     recorders.get(operation).record(System.nanoTime() - begin);
+                  } catch (RuntimeException e) {
+                     recorders.get(operation).fail();
+                  }
+               }
+            }
+         });
+      }
+
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      return System.nanoTime() - start;
+   }
+
+   private Operation pick(Random random) {
+      int ticket = random.nextInt(totalWeight);
+      for (Map.Entry<Operation, Integer> entry : weights.entrySet()) {
+         ticket -= entry.getValue();
+         if (ticket < 0)
+            return entry.getKey();
+      }
+      throw new IllegalStateException("no operation for weights " + weights);
+   }
+
+   /**
+    * @return the operation actually executed; a DELETE with nothing left to delete becomes a PUT
+    */
+   private Operation execute(Operation operation, Random random) {
+      switch (operation) {
+         case GET:
+            read(blobStore.getBlob(containerName, preloadedName(random.nextInt(preloaded))));
+            return operation;
+         case LIST:
+            blobStore.list(containerName, maxResults(100));
+            return operation;
+         case DELETE:
+            String name = deletable.poll();
+            if (name != null) {
+               blobStore.removeBlob(containerName, name);
+               return operation;
+            }
+            // fall through, there is nothing to delete yet
+         case PUT:
+         default:
+            String newName = "benchmark-" + sequence.incrementAndGet();
+            blobStore.putBlob(containerName, newBlob(newName));
+            deletable.add(newName);
+            return Operation.PUT;
+      }
+   }
+
+   /**
+    * Drains the payload so the timing includes the transfer, not just the response headers.
+    */
+   private static void read(Blob blob) {
+      InputStream in = blob.getPayload().getInput();
+      try {
+         ByteStreams.copy(in, ByteStreams.nullOutputStream());
+      } catch (IOException e) {
+         throw Throwables.propagate(e);
+      } finally {
+         Closeables.closeQuietly(in);
+      }
+   }
+
+   private Blob newBlob(String name) {
+      return blobStore.blobBuilder(name).payload(data).build();
+   }
+
+   private static String preloadedName(int i) {
+      return "benchmark-preloaded-" + i;
+   }
+
+   void report(int operations, long elapsedNanos) {
+      double seconds = elapsedNanos / 1e9;
+      System.out.printf("  %d operations in %.2f s: %.1f ops/s%n", operations, seconds, operations / seconds);
+      System.out.printf("  %-7s %8s %8s %10s %10s %10s %10s %10s%n", "op", "count", "errors", "ops/s",
+            "p50 ms", "p90 ms", "p99 ms", "max ms");
+      for (Map.Entry<Operation, LatencyRecorder> entry : recorders.entrySet()) {
+         LatencyRecorder recorder = entry.getValue();
+         long[] sorted = recorder.sorted();
+         if (sorted.length == 0 && recorder.errors() == 0)
+            continue;
+         System.out.printf("  %-7s %8d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n", entry.getKey(), sorted.length,
+               recorder.errors(), sorted.length / seconds, millis(percentile(sorted, 50)),
+               millis(percentile(sorted, 90)), millis(percentile(sorted, 99)), millis(percentile(sorted, 100)));
+      }
+   }
+
+   static long percentile(long[] sorted, int percentile) {
+      if (sorted.length == 0)
+         return 0;
+      int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+   }
+
+   private static double millis(long nanos) {
+      return nanos / 1e6;
+   }
+
+   /**
+    * Keeps every latency sample in a preallocated array, so recording is a single atomic increment.
+    */
+   static class LatencyRecorder {
+      private final long[] samples;
+      private final AtomicInteger count = new AtomicInteger();
+      private final AtomicInteger errors = new AtomicInteger();
+
+      LatencyRecorder(int capacity) {
+         this.samples = new long[capacity];
+      }
+
+      void record(long nanos) {
+         int index = count.getAndIncrement();
+         if (index < samples.length)
+            samples[index] = nanos;
+      }
+
+      void fail() {
+         errors.incrementAndGet();
+      }
+
+      int errors() {
+         return errors.get();
+      }
+
+      long[] sorted() {
+         long[] copy = Arrays.copyOf(samples, Math.min(count.get(), samples.length));
+         Arrays.sort(copy);
+         return copy;
+      }
+   }
+}
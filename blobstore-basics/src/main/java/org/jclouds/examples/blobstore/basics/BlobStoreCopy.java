@@ -0,0 +1,319 @@
+/**
+ *
+ * Copyright (C) 2010 Cloud Conscious, LLC. <info@cloudconscious.com>
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.jclouds.examples.blobstore.basics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Iterables.contains;
+import static org.jclouds.blobstore.options.ListContainerOptions.Builder.recursive;
+import static org.jclouds.blobstore.options.PutOptions.Builder.multipart;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobBuilder.PayloadBlobBuilder;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.StorageType;
+import org.jclouds.blobstore.options.ListContainerOptions;
+import org.jclouds.io.ContentMetadata;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+/**
+ * Copies every blob of a container in one {@link BlobStore} to a container in another, streaming each
+ * payload from the source straight into the destination without touching local disk.
+ *
+ * Blobs larger than MULTIPART_THRESHOLD are the exception: the multipart upload slices its payload by
+ * offset and may upload the parts in parallel, which a one-shot stream can't serve, so they are spooled
+ * to a temporary file first. They are then read back from the destination and compared by MD5, since the
+ * ETag of a multipart upload isn't the MD5 of the content.
+ *
+ * Usage is: java BlobStoreCopy \"srcProvider\" \"srcIdentity\" \"srcCredential\" \"srcContainer\"
+ * \"dstProvider\" \"dstIdentity\" \"dstCredential\" \"dstContainer\" [concurrency] [progressFile]
+ *
+ * The names of copied blobs are appended to the progress file as each copy completes; running the same
+ * command again skips them, so an interrupted migration resumes where it stopped.
+ */
+public class BlobStoreCopy {
+
+   public static int PARAMETERS = 8;
+   public static String INVALID_SYNTAX = "Invalid number of parameters. Syntax is: \"srcProvider\" \"srcIdentity\" \"srcCredential\" \"srcContainer\" \"dstProvider\" \"dstIdentity\" \"dstCredential\" \"dstContainer\" [concurrency] [progressFile]";
+
+   private static final String PROPERTY_FILESYSTEM_BASEDIR = "jclouds.filesystem.basedir";
+
+   public static final int DEFAULT_CONCURRENCY = 8;
+   // blobs larger than this are uploaded with multipart, where the destination supports it
+   public static final long MULTIPART_THRESHOLD = 32 * 1024 * 1024;
+
+   private final BlobStore source;
+   private final String sourceContainer;
+   private final BlobStore destination;
+   private final String destinationContainer;
+   private final int concurrency;
+   private final File progressFile;
+
+   private final Set<String> completed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+   private final AtomicInteger copied = new AtomicInteger();
+   private final AtomicInteger skipped = new AtomicInteger();
+   private final AtomicInteger failed = new AtomicInteger();
+   private final AtomicLong bytes = new AtomicLong();
+   private Writer progress;
+
+   public static void main(String[] args) throws IOException, InterruptedException {
+
+      if (args.length < PARAMETERS)
+         throw new IllegalArgumentException(INVALID_SYNTAX);
+
+      // Args
+
+      String sourceProvider = args[0];
+      String destinationProvider = args[4];
+      checkArgument(contains(MainApp.allKeys, sourceProvider), "provider %s not in supported list: %s",
+            sourceProvider, MainApp.allKeys);
+      checkArgument(contains(MainApp.allKeys, destinationProvider), "provider %s not in supported list: %s",
+            destinationProvider, MainApp.allKeys);
+
+      int concurrency = args.length > 8 ? Integer.parseInt(args[8]) : DEFAULT_CONCURRENCY;
+      File progressFile = new File(args.length > 9 ? args[9] : args[3] + "-to-" + args[7] + ".progress");
+
+      // Init
+      BlobStoreContext sourceContext = ContextBuilder.newBuilder(sourceProvider)
+                                                     .credentials(args[1], args[2])
+                                                     .overrides(overrides(sourceProvider))
+                                                     .buildView(BlobStoreContext.class);
+      BlobStoreContext destinationContext = ContextBuilder.newBuilder(destinationProvider)
+                                                          .credentials(args[5], args[6])
+                                                          .overrides(overrides(destinationProvider))
+                                                          .buildView(BlobStoreContext.class);
+
+      try {
+         BlobStoreCopy copy = new BlobStoreCopy(sourceContext.getBlobStore(), args[3],
+               destinationContext.getBlobStore(), args[7], concurrency, progressFile);
+         copy.copy();
+      } finally {
+         // Close connectons
+         sourceContext.close();
+         destinationContext.close();
+         System.exit(0);
+      }
+   }
+
+   /**
+    * The filesystem provider needs a directory to keep its containers in.
+    */
+   private static Properties overrides(String provider) {
+      Properties overrides = new Properties();
+      if ("filesystem".equals(provider)) {
+         File baseDir = new File(System.getProperty("java.io.tmpdir"), "jclouds-copy");
+         overrides.setProperty(PROPERTY_FILESYSTEM_BASEDIR, baseDir.getAbsolutePath());
+      }
+      return overrides;
+   }
+
+   public BlobStoreCopy(BlobStore source, String sourceContainer, BlobStore destination,
+         String destinationContainer, int concurrency, File progressFile) {
+      checkArgument(concurrency > 0, "concurrency must be positive");
+      this.source = source;
+      this.sourceContainer = sourceContainer;
+      this.destination = destination;
+      this.destinationContainer = destinationContainer;
+      this.concurrency = concurrency;
+      this.progressFile = progressFile;
+   }
+
+   /**
+    * Lists the source page by page and copies each blob as soon as it is listed. At most
+    * {@code concurrency} copies are in flight; the listing waits for a free slot, so memory stays bounded
+    * whatever the size of the container.
+    */
+   public void copy() throws IOException, InterruptedException {
+      if (progressFile.exists())
+         completed.addAll(Files.readLines(progressFile, Charsets.UTF_8));
+      progress = Files.newWriterSupplier(progressFile, Charsets.UTF_8, true).getOutput();
+
+      destination.createContainerInLocation(null, destinationContainer);
+
+      final Semaphore slots = new Semaphore(concurrency);
+      ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+      long start = System.currentTimeMillis();
+
+      try {
+         ListContainerOptions options = recursive();
+         PageSet<? extends StorageMetadata> page;
+
+         do {
+            page = source.list(sourceContainer, options);
+
+            for (StorageMetadata metadata : page) {
+               if (metadata.getType() != StorageType.BLOB)
+                  continue;
+
+               final String name = metadata.getName();
+               if (completed.contains(name)) {
+                  skipped.incrementAndGet();
+                  continue;
+               }
+
+               slots.acquire();
+               executor.execute(new Runnable() {
+                  @Override
+                  public void run() {
+                     try {
+                        copyBlob(name);
+                     } catch (Exception e) {
+                        failed.incrementAndGet();
+                        System.err.printf("  %s failed: %s%n", name, e.getMessage());
+                     } finally {
+                        slots.release();
+                     }
+                  }
+               });
+            }
+
+            options = recursive().afterMarker(page.getNextMarker());
+         } while (page.getNextMarker() != null);
+
+         executor.shutdown();
+         executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } finally {
+         executor.shutdownNow();
+         progress.close();
+      }
+
+      long elapsed = Math.max(1, System.currentTimeMillis() - start);
+      System.out.printf("Copied %d blobs (%d bytes) in %d ms, %.1f blobs/s, %d skipped, %d failed%n",
+            copied.get(), bytes.get(), elapsed, copied.get() * 1000.0 / elapsed, skipped.get(), failed.get());
+   }
+
+   /**
+    * Pipes the source payload into the destination. The content length is copied from the source, so
+    * the destination can stream the upload instead of buffering it to find the length.
+    */
+   private void copyBlob(String name) throws IOException {
+      Blob blob = source.getBlob(sourceContainer, name);
+      if (blob == null)
+         return; // deleted since it was listed
+
+      ContentMetadata contentMetadata = blob.getMetadata().getContentMetadata();
+      Long length = contentMetadata.getContentLength();
+
+      if (length != null && length > MULTIPART_THRESHOLD) {
+         copyMultipart(name, blob);
+      } else {
+         PayloadBlobBuilder builder = destination.blobBuilder(name)
+               .userMetadata(blob.getMetadata().getUserMetadata())
+               .payload(blob.getPayload().getInput())
+               .contentType(contentMetadata.getContentType());
+         if (length != null)
+            builder.contentLength(length);
+
+         try {
+            destination.putBlob(destinationContainer, builder.build());
+         } finally {
+            blob.getPayload().release();
+         }
+      }
+
+      copied.incrementAndGet();
+      if (length != null)
+         bytes.addAndGet(length);
+      recordCompleted(name);
+   }
+
+   /**
+    * Spools the source payload to a temporary file, which the multipart upload can slice by offset, and
+    * checks the MD5 of the copy against the MD5 of the spooled file.
+    */
+   private void copyMultipart(String name, Blob blob) throws IOException {
+      File spool = File.createTempFile("jclouds-copy", ".tmp");
+
+      try {
+         try {
+            ByteStreams.copy(blob.getPayload().getInput(), Files.newOutputStreamSupplier(spool));
+         } finally {
+            blob.getPayload().release();
+         }
+         HashCode expected = Files.hash(spool, Hashing.md5());
+
+         Blob copy = destination.blobBuilder(name)
+               .userMetadata(blob.getMetadata().getUserMetadata())
+               .payload(spool)
+               .contentType(blob.getMetadata().getContentMetadata().getContentType())
+               .build();
+         destination.putBlob(destinationContainer, copy, multipart());
+
+         HashCode actual = md5(destination.getBlob(destinationContainer, name));
+         if (!expected.equals(actual))
+            throw new IOException("MD5 of the copy is " + actual + ", expected " + expected);
+      } finally {
+         spool.delete();
+      }
+   }
+
+   private static HashCode md5(Blob blob) throws IOException {
+      if (blob == null)
+         throw new IOException("copy not found in the destination");
+
+      Hasher hasher = Hashing.md5().newHasher();
+      InputStream in = blob.getPayload().getInput();
+      try {
+         byte[] buffer = new byte[64 * 1024];
+         for (int read = in.read(buffer); read != -1; read = in.read(buffer))
+            hasher.putBytes(buffer, 0, read);
+      } finally {
+         Closeables.closeQuietly(in);
+         blob.getPayload().release();
+      }
+      return hasher.hash();
+   }
+
+   private synchronized void recordCompleted(String name) {
+      completed.add(name);
+      try {
+         progress.write(name);
+         progress.write('\n');
+         progress.flush();
+      } catch (IOException e) {
+         System.err.printf("  could not record progress for %s: %s%n", name, e.getMessage());
+      }
+   }
+}
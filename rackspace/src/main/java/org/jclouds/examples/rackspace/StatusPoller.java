@@ -0,0 +1,322 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jclouds.openstack.cinder.v1.CinderApi;
+import org.jclouds.openstack.cinder.v1.domain.Snapshot;
+import org.jclouds.openstack.cinder.v1.domain.Volume;
+import org.jclouds.openstack.nova.v2_0.NovaApi;
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.rackspace.cloudloadbalancers.v1.CloudLoadBalancersApi;
+import org.jclouds.rackspace.cloudloadbalancers.v1.domain.LoadBalancer;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Waits for many resources to reach a state with one listing per resource type and zone per tick.
+ *
+ * The usual way to wait, a predicate like VolumePredicates.awaitAvailable or the POLL_INITIAL_PERIOD and
+ * POLL_MAX_PERIOD of the ComputeService, polls each resource on its own, so API calls grow with the number of
+ * resources being waited on. Here every pending resource of the same Source (say servers in DFW) is checked against
+ * the same listing, so the calls per minute stay flat however many resources are pending.
+ *
+ * Each Source polls at its own interval. It starts at initialInterval and doubles while nothing completes, up to
+ * maxInterval, and halves again whenever something does, so the poller keeps up with a batch that is finishing and
+ * stays quiet while a batch is still building. A Source stops polling when nothing is waiting on it.
+ *
+ * Closing the poller fails every future that is still waiting with an IllegalStateException, so nobody waits on a
+ * poller that has stopped polling.
+ */
+public class StatusPoller implements Closeable {
+   private final long initialIntervalMillis;
+   private final long maxIntervalMillis;
+   private final ScheduledExecutorService scheduler;
+   private final ConcurrentMap<String, Group<?>> groups = Maps.newConcurrentMap();
+   private final AtomicInteger listCalls = new AtomicInteger();
+   private volatile boolean closed;
+
+   public StatusPoller(long initialInterval, long maxInterval, TimeUnit unit) {
+      checkArgument(initialInterval > 0 && maxInterval >= initialInterval,
+            "intervals must be positive and initialInterval no more than maxInterval");
+      this.initialIntervalMillis = unit.toMillis(initialInterval);
+      this.maxIntervalMillis = unit.toMillis(maxInterval);
+      this.scheduler = Executors.newScheduledThreadPool(4);
+   }
+
+   /**
+    * @param done applied to the listed resource, or to null when the resource isn't listed
+    * @return a future that completes with the resource once done applies, or null if done applied to a resource that
+    *         isn't listed
+    */
+   public <T> ListenableFuture<T> await(Source<T> source, String id, Predicate<? super T> done) {
+      return await(source, id, done, Predicates.alwaysFalse());
+   }
+
+   /**
+    * @param failed applied to the listed resource, fails the future with an IllegalStateException when it applies
+    */
+   @SuppressWarnings("unchecked")
+   public <T> ListenableFuture<T> await(Source<T> source, String id, Predicate<? super T> done,
+         Predicate<? super T> failed) {
+      Group<T> group = (Group<T>) groups.get(source.key());
+
+      if (group == null) {
+         groups.putIfAbsent(source.key(), new Group<T>(source));
+         group = (Group<T>) groups.get(source.key());
+      }
+
+      return group.add(checkNotNull(id, "id"), checkNotNull(done, "done"), checkNotNull(failed, "failed"));
+   }
+
+   /**
+    * @return the number of listings made so far, across all sources
+    */
+   public int getListCalls() {
+      return listCalls.get();
+   }
+
+   /**
+    * Stops polling and fails the futures of every resource that is still being waited on.
+    */
+   @Override
+   public void close() {
+      closed = true;
+      scheduler.shutdownNow();
+
+      for (Group<?> group: groups.values()) {
+         group.close();
+      }
+   }
+
+   /**
+    * One type of resource in one zone, listed in a single call.
+    */
+   public abstract static class Source<T> {
+      private final String type;
+      private final String zone;
+
+      protected Source(String type, String zone) {
+         this.type = checkNotNull(type, "type");
+         this.zone = checkNotNull(zone, "zone");
+      }
+
+      /**
+       * @return every resource of this type in this zone, by id
+       */
+      protected abstract Map<String, T> list();
+
+      private String key() {
+         return type + "/" + zone;
+      }
+
+      @Override
+      public String toString() {
+         return key();
+      }
+   }
+
+   public static Source<Server> servers(final NovaApi nova, final String zone) {
+      return new Source<Server>("servers", zone) {
+         @Override
+         protected Map<String, Server> list() {
+            ImmutableMap.Builder<String, Server> servers = ImmutableMap.builder();
+
+            for (Server server: nova.getServerApiForZone(zone).listInDetail().concat()) {
+               servers.put(server.getId(), server);
+            }
+
+            return servers.build();
+         }
+      };
+   }
+
+   public static Source<Volume> volumes(final CinderApi cinder, final String zone) {
+      return new Source<Volume>("volumes", zone) {
+         @Override
+         protected Map<String, Volume> list() {
+            ImmutableMap.Builder<String, Volume> volumes = ImmutableMap.builder();
+
+            for (Volume volume: cinder.getVolumeApiForZone(zone).listInDetail()) {
+               volumes.put(volume.getId(), volume);
+            }
+
+            return volumes.build();
+         }
+      };
+   }
+
+   public static Source<Snapshot> snapshots(final CinderApi cinder, final String zone) {
+      return new Source<Snapshot>("snapshots", zone) {
+         @Override
+         protected Map<String, Snapshot> list() {
+            ImmutableMap.Builder<String, Snapshot> snapshots = ImmutableMap.builder();
+
+            for (Snapshot snapshot: cinder.getSnapshotApiForZone(zone).listInDetail()) {
+               snapshots.put(snapshot.getId(), snapshot);
+            }
+
+            return snapshots.build();
+         }
+      };
+   }
+
+   public static Source<LoadBalancer> loadBalancers(final CloudLoadBalancersApi clb, final String zone) {
+      return new Source<LoadBalancer>("loadbalancers", zone) {
+         @Override
+         protected Map<String, LoadBalancer> list() {
+            ImmutableMap.Builder<String, LoadBalancer> loadBalancers = ImmutableMap.builder();
+
+            for (LoadBalancer loadBalancer: clb.getLoadBalancerApiForZone(zone).list().concat()) {
+               loadBalancers.put(String.valueOf(loadBalancer.getId()), loadBalancer);
+            }
+
+            return loadBalancers.build();
+         }
+      };
+   }
+
+   private class Group<T> implements Runnable {
+      private final Source<T> source;
+      private final ListMultimap<String, Waiter<T>> waiters = ArrayListMultimap.create();
+      private long intervalMillis;
+      private boolean scheduled;
+
+      Group(Source<T> source) {
+         this.source = source;
+      }
+
+      synchronized ListenableFuture<T> add(String id, Predicate<? super T> done, Predicate<? super T> failed) {
+         checkState(!closed, "closed");
+         Waiter<T> waiter = new Waiter<T>(done, failed);
+         waiters.put(id, waiter);
+
+         if (!scheduled) {
+            scheduled = true;
+            intervalMillis = initialIntervalMillis;
+            scheduler.schedule(this, intervalMillis, TimeUnit.MILLISECONDS);
+         }
+
+         return waiter.future;
+      }
+
+      @Override
+      public void run() {
+         Map<String, T> listed = null;
+
+         try {
+            listed = source.list();
+         }
+         catch (RuntimeException e) {
+            // Leave everything pending and try again at the next tick
+            System.err.println("Listing " + source + " failed: " + e);
+         }
+         finally {
+            listCalls.incrementAndGet();
+         }
+
+         synchronized (this) {
+            int completed = 0;
+
+            for (Iterator<Map.Entry<String, Waiter<T>>> i = waiters.entries().iterator(); i.hasNext();) {
+               Map.Entry<String, Waiter<T>> entry = i.next();
+               Waiter<T> waiter = entry.getValue();
+
+               if (waiter.future.isDone()) {
+                  // Cancelled by the caller
+                  i.remove();
+               }
+               else if (listed != null && waiter.complete(source, entry.getKey(), listed.get(entry.getKey()))) {
+                  i.remove();
+                  completed++;
+               }
+            }
+
+            intervalMillis = completed > 0 ? Math.max(initialIntervalMillis, intervalMillis / 2)
+                  : Math.min(maxIntervalMillis, intervalMillis * 2);
+
+            if (waiters.isEmpty() || closed) {
+               scheduled = false;
+            }
+            else {
+               scheduler.schedule(this, intervalMillis, TimeUnit.MILLISECONDS);
+            }
+         }
+      }
+
+      synchronized void close() {
+         for (Map.Entry<String, Waiter<T>> entry: waiters.entries()) {
+            entry.getValue().future.setException(new IllegalStateException("closed while waiting for " + source + " "
+                  + entry.getKey()));
+         }
+
+         waiters.clear();
+         scheduled = false;
+      }
+   }
+
+   private static class Waiter<T> {
+      private final Predicate<? super T> done;
+      private final Predicate<? super T> failed;
+      private final SettableFuture<T> future = SettableFuture.create();
+
+      Waiter(Predicate<? super T> done, Predicate<? super T> failed) {
+         this.done = done;
+         this.failed = failed;
+      }
+
+      /**
+       * @return true when the future has been completed
+       */
+      boolean complete(Source<T> source, String id, T resource) {
+         try {
+            if (resource != null && failed.apply(resource)) {
+               return future.setException(new IllegalStateException(source + " " + id + " failed: " + resource));
+            }
+            if (done.apply(resource)) {
+               return future.set(resource);
+            }
+         }
+         catch (RuntimeException e) {
+            return future.setException(e);
+         }
+
+         return false;
+      }
+   }
+}
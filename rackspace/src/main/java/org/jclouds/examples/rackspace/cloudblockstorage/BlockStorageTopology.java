@@ -0,0 +1,379 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudblockstorage;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jclouds.openstack.cinder.v1.CinderApi;
+import org.jclouds.openstack.cinder.v1.domain.Snapshot;
+import org.jclouds.openstack.cinder.v1.domain.Volume;
+import org.jclouds.openstack.cinder.v1.domain.VolumeAttachment;
+import org.jclouds.openstack.cinder.v1.features.SnapshotApi;
+import org.jclouds.openstack.cinder.v1.features.VolumeApi;
+import org.jclouds.openstack.nova.v2_0.NovaApi;
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.openstack.nova.v2_0.features.ServerApi;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * An in memory index of the servers, volumes, attachments and snapshots of one zone.
+ *
+ * The examples find what they work on by listing everything and scanning for a name, and DetachVolume also lists
+ * the attachments of every matching server one at a time. This index is built with one listing each of servers,
+ * volumes and snapshots, and the attachments come along with the volume details, so after that every lookup by id,
+ * name or attachment is a map lookup and costs no API calls.
+ *
+ * When something changes, refresh just the resources it touched with refreshVolume, refreshServer or
+ * refreshSnapshot, or one whole type with refreshVolumes and friends, rather than listing everything again. Each
+ * refresh builds a new immutable index and swaps it in, so lookups never see a half updated index and need no locks.
+ */
+public class BlockStorageTopology {
+   private final ServerApi serverApi;
+   private final VolumeApi volumeApi;
+   private final SnapshotApi snapshotApi;
+   private final AtomicInteger apiCalls = new AtomicInteger();
+
+   private volatile Index<Server> servers = Index.of(ImmutableList.<Server> of(), SERVER);
+   private volatile Index<Volume> volumes = Index.of(ImmutableList.<Volume> of(), VOLUME);
+   private volatile Index<Snapshot> snapshots = Index.of(ImmutableList.<Snapshot> of(), SNAPSHOT);
+
+   /**
+    * An index of volumes and snapshots only, for when the servers aren't needed.
+    */
+   public BlockStorageTopology(CinderApi cinder, String zone) {
+      this(null, cinder, zone);
+   }
+
+   /**
+    * @param nova the API to list servers with, or null to leave them out
+    */
+   public BlockStorageTopology(NovaApi nova, CinderApi cinder, String zone) {
+      checkNotNull(cinder, "cinder");
+      checkNotNull(zone, "zone");
+      this.serverApi = nova == null ? null : nova.getServerApiForZone(zone);
+      this.volumeApi = cinder.getVolumeApiForZone(zone);
+      this.snapshotApi = cinder.getSnapshotApiForZone(zone);
+   }
+
+   /**
+    * Lists every type of resource again.
+    */
+   public BlockStorageTopology refresh() {
+      refreshServers();
+      refreshVolumes();
+      refreshSnapshots();
+      return this;
+   }
+
+   public void refreshServers() {
+      if (serverApi != null) {
+         apiCalls.incrementAndGet();
+         servers = Index.of(serverApi.listInDetail().concat(), SERVER);
+      }
+   }
+
+   public void refreshVolumes() {
+      apiCalls.incrementAndGet();
+      volumes = Index.of(volumeApi.listInDetail(), VOLUME);
+   }
+
+   public void refreshSnapshots() {
+      apiCalls.incrementAndGet();
+      snapshots = Index.of(snapshotApi.listInDetail(), SNAPSHOT);
+   }
+
+   /**
+    * Gets one server again, or drops it from the index if it's gone.
+    */
+   public void refreshServer(String id) {
+      checkNotNull(serverApi, "servers aren't indexed");
+      apiCalls.incrementAndGet();
+      servers = servers.replace(id, serverApi.get(id));
+   }
+
+   /**
+    * Gets one volume again, along with its attachments, or drops it from the index if it's gone.
+    */
+   public void refreshVolume(String id) {
+      apiCalls.incrementAndGet();
+      volumes = volumes.replace(id, volumeApi.get(id));
+   }
+
+   /**
+    * Gets one snapshot again, or drops it from the index if it's gone.
+    */
+   public void refreshSnapshot(String id) {
+      apiCalls.incrementAndGet();
+      snapshots = snapshots.replace(id, snapshotApi.get(id));
+   }
+
+   /**
+    * @return the server with this id, or null
+    */
+   public Server getServer(String id) {
+      return servers.byId.get(id);
+   }
+
+   /**
+    * @return the volume with this id, or null
+    */
+   public Volume getVolume(String id) {
+      return volumes.byId.get(id);
+   }
+
+   /**
+    * @return the snapshot with this id, or null
+    */
+   public Snapshot getSnapshot(String id) {
+      return snapshots.byId.get(id);
+   }
+
+   /**
+    * @return the servers with exactly this name, names don't have to be unique
+    */
+   public List<Server> getServersNamed(String name) {
+      return servers.byName.get(name);
+   }
+
+   /**
+    * @return the volumes with exactly this name
+    */
+   public List<Volume> getVolumesNamed(String name) {
+      return volumes.byName.get(name);
+   }
+
+   /**
+    * @return the snapshots with exactly this name
+    */
+   public List<Snapshot> getSnapshotsNamed(String name) {
+      return snapshots.byName.get(name);
+   }
+
+   /**
+    * @return the servers whose names start with prefix, in name order
+    */
+   public List<Server> findServers(String prefix) {
+      return servers.startingWith(prefix);
+   }
+
+   /**
+    * @return the volumes whose names start with prefix, in name order
+    */
+   public List<Volume> findVolumes(String prefix) {
+      return volumes.startingWith(prefix);
+   }
+
+   /**
+    * @return the snapshots whose names start with prefix, in name order
+    */
+   public List<Snapshot> findSnapshots(String prefix) {
+      return snapshots.startingWith(prefix);
+   }
+
+   /**
+    * @return the attachments of volumes to this server
+    */
+   public List<VolumeAttachment> getAttachmentsOnServer(String serverId) {
+      List<VolumeAttachment> attachments = Lists.newArrayList();
+
+      for (Volume volume: volumes.byGroup.get(serverId)) {
+         for (VolumeAttachment attachment: volume.getAttachments()) {
+            if (serverId.equals(attachment.getServerId())) {
+               attachments.add(attachment);
+            }
+         }
+      }
+
+      return attachments;
+   }
+
+   /**
+    * @return the snapshots taken of this volume
+    */
+   public List<Snapshot> getSnapshotsOfVolume(String volumeId) {
+      return snapshots.byGroup.get(volumeId);
+   }
+
+   /**
+    * @return the number of API calls made to build and refresh the index
+    */
+   public int getApiCalls() {
+      return apiCalls.get();
+   }
+
+   @Override
+   public String toString() {
+      return String.format("%d servers, %d volumes, %d snapshots from %d API calls", servers.byId.size(),
+            volumes.byId.size(), snapshots.byId.size(), apiCalls.get());
+   }
+
+   /**
+    * How to get the id, the name and the ids of related resources of each type.
+    */
+   private abstract static class Keys<T> {
+      abstract String id(T resource);
+
+      abstract String name(T resource);
+
+      /**
+       * @return the ids to group this resource under, the servers of a volume or the volume of a snapshot
+       */
+      abstract Iterable<String> groups(T resource);
+   }
+
+   private static final Keys<Server> SERVER = new Keys<Server>() {
+      @Override
+      String id(Server server) {
+         return server.getId();
+      }
+
+      @Override
+      String name(Server server) {
+         return server.getName();
+      }
+
+      @Override
+      Iterable<String> groups(Server server) {
+         return ImmutableSet.of();
+      }
+   };
+
+   private static final Keys<Volume> VOLUME = new Keys<Volume>() {
+      @Override
+      String id(Volume volume) {
+         return volume.getId();
+      }
+
+      @Override
+      String name(Volume volume) {
+         return volume.getName();
+      }
+
+      @Override
+      Iterable<String> groups(Volume volume) {
+         ImmutableSet.Builder<String> serverIds = ImmutableSet.builder();
+
+         for (VolumeAttachment attachment: volume.getAttachments()) {
+            serverIds.add(attachment.getServerId());
+         }
+
+         return serverIds.build();
+      }
+   };
+
+   private static final Keys<Snapshot> SNAPSHOT = new Keys<Snapshot>() {
+      @Override
+      String id(Snapshot snapshot) {
+         return snapshot.getId();
+      }
+
+      @Override
+      String name(Snapshot snapshot) {
+         return snapshot.getName();
+      }
+
+      @Override
+      Iterable<String> groups(Snapshot snapshot) {
+         return ImmutableSet.of(snapshot.getVolumeId());
+      }
+   };
+
+   private static class Index<T> {
+      private final Keys<T> keys;
+      private final ImmutableMap<String, T> byId;
+      private final ImmutableListMultimap<String, T> byName;
+      private final ImmutableSortedMap<String, List<T>> byNameSorted;
+      private final ImmutableListMultimap<String, T> byGroup;
+
+      private Index(Iterable<? extends T> resources, Keys<T> keys) {
+         ImmutableMap.Builder<String, T> byId = ImmutableMap.builder();
+         ImmutableListMultimap.Builder<String, T> byName = ImmutableListMultimap.builder();
+         ImmutableListMultimap.Builder<String, T> byGroup = ImmutableListMultimap.builder();
+
+         for (T resource: resources) {
+            byId.put(keys.id(resource), resource);
+
+            if (keys.name(resource) != null) {
+               byName.put(keys.name(resource), resource);
+            }
+            for (String group: keys.groups(resource)) {
+               byGroup.put(group, resource);
+            }
+         }
+
+         this.keys = keys;
+         this.byId = byId.build();
+         this.byName = byName.build();
+         this.byNameSorted = ImmutableSortedMap.copyOf(Maps.transformValues(this.byName.asMap(),
+               new Function<Iterable<T>, List<T>>() {
+            @Override
+            public List<T> apply(Iterable<T> named) {
+               return ImmutableList.copyOf(named);
+            }
+         }));
+         this.byGroup = byGroup.build();
+      }
+
+      static <T> Index<T> of(Iterable<? extends T> resources, Keys<T> keys) {
+         return new Index<T>(resources, keys);
+      }
+
+      /**
+       * @param resource the new version of the resource, or null to remove it
+       */
+      Index<T> replace(String id, T resource) {
+         Map<String, T> resources = Maps.newLinkedHashMap(byId);
+
+         if (resource == null) {
+            resources.remove(id);
+         }
+         else {
+            resources.put(id, resource);
+         }
+
+         return new Index<T>(resources.values(), keys);
+      }
+
+      List<T> startingWith(String prefix) {
+         List<T> found = Lists.newArrayList();
+
+         for (Map.Entry<String, List<T>> entry: byNameSorted.tailMap(prefix).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+               break;
+            }
+
+            found.addAll(entry.getValue());
+         }
+
+         return found;
+      }
+   }
+}
@@ -21,28 +21,50 @@ package org.jclouds.examples.rackspace.cloudblockstorage;
 import static com.google.common.io.Closeables.closeQuietly;
 
 import java.io.Closeable;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.jclouds.ContextBuilder;
+import org.jclouds.examples.rackspace.StatusPoller;
 import org.jclouds.openstack.cinder.v1.CinderApi;
 import org.jclouds.openstack.cinder.v1.CinderApiMetadata;
 import org.jclouds.openstack.cinder.v1.CinderAsyncApi;
 import org.jclouds.openstack.cinder.v1.domain.Snapshot;
 import org.jclouds.openstack.cinder.v1.domain.Volume;
+import org.jclouds.openstack.cinder.v1.domain.VolumeAttachment;
 import org.jclouds.openstack.cinder.v1.features.SnapshotApi;
 import org.jclouds.openstack.cinder.v1.features.VolumeApi;
 import org.jclouds.openstack.cinder.v1.options.CreateSnapshotOptions;
 import org.jclouds.openstack.cinder.v1.predicates.SnapshotPredicates;
 import org.jclouds.rest.RestContext;
 
+import com.google.common.base.Predicate;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * This example creates a snapshot of a volume.
  * 
+ * In fan out mode it snapshots every example volume at once. Volumes attached to the same server are snapshotted
+ * together, all of their requests sent back to back, so the snapshots of one server are taken as close to the same
+ * moment as possible. A StatusPoller then waits for all of the snapshots with one listing per poll.
+ * 
  * @author Everett Toews
  */
 public class CreateSnapshot implements Closeable {
+   // How long the fan out waits for all of the snapshots to become available
+   private static final long FANOUT_TIMEOUT_MINUTES = 60;
+
    private RestContext<CinderApi, CinderAsyncApi> cinder;
    private VolumeApi volumeApi;
+   private BlockStorageTopology topology;
    private SnapshotApi snapshotApi;
 
    /**
@@ -51,14 +73,26 @@ public class CreateSnapshot implements Closeable {
     * 
     * The first argument (args[0]) must be your username The second argument
     * (args[1]) must be your API key
+    * The optional third argument (args[2]) is "fanout" to snapshot every example volume at once
     */
    public static void main(String[] args) {
       CreateSnapshot createSnapshot = new CreateSnapshot();
 
       try {
          createSnapshot.init(args);
-         Volume volume = createSnapshot.getVolume();
-         createSnapshot.createSnapshot(volume);
+
+         if (args.length > 2 && "fanout".equals(args[2])) {
+            createSnapshot.createSnapshots(new Predicate<Volume>() {
+               @Override
+               public boolean apply(Volume volume) {
+                  return volume.getName() != null && volume.getName().startsWith(Constants.NAME);
+               }
+            });
+         }
+         else {
+            Volume volume = createSnapshot.getVolume();
+            createSnapshot.createSnapshot(volume);
+         }
       }
       catch (Exception e) {
          e.printStackTrace();
@@ -80,6 +114,7 @@ public class CreateSnapshot implements Closeable {
             .credentials(username, apiKey)
             .build(CinderApiMetadata.CONTEXT_TOKEN);
       volumeApi = cinder.getApi().getVolumeApiForZone(Constants.ZONE);
+      topology = new BlockStorageTopology(cinder.getApi(), Constants.ZONE);
       snapshotApi = cinder.getApi().getSnapshotApiForZone(Constants.ZONE);
    }
 
@@ -87,10 +122,10 @@ public class CreateSnapshot implements Closeable {
     * @return Volume The Volume created in the CreateVolumeAndAttach example
     */
    private Volume getVolume() {
-      for (Volume volume: volumeApi.list()) {
-         if (volume.getName().startsWith(Constants.NAME)) {
-            return volume;
-         }
+      topology.refreshVolumes();
+
+      for (Volume volume: topology.findVolumes(Constants.NAME)) {
+         return volume;
       }
 
       throw new RuntimeException(Constants.NAME + " not found. Run the CreateVolumeAndAttach example first.");
@@ -115,6 +150,129 @@ public class CreateSnapshot implements Closeable {
       System.out.println("  " + snapshot);
    }
 
+   /**
+    * This method will snapshot every volume that matches the predicate, one server's volumes at a time, and wait for
+    * all of the snapshots to become available.
+    */
+   private void createSnapshots(Predicate<Volume> selector) throws InterruptedException, ExecutionException {
+      System.out.println("Create Snapshots (fan out)");
+
+      ListMultimap<String, Volume> volumesByServer = ArrayListMultimap.create();
+      for (Volume volume: volumeApi.listInDetail()) {
+         if (selector.apply(volume)) {
+            volumesByServer.put(serverId(volume), volume);
+         }
+      }
+
+      final long start = System.currentTimeMillis();
+      StatusPoller poller = new StatusPoller(5, 30, TimeUnit.SECONDS);
+      StatusPoller.Source<Snapshot> snapshots = StatusPoller.snapshots(cinder.getApi(), Constants.ZONE);
+      List<ListenableFuture<Snapshot>> available = Lists.newArrayList();
+
+      try {
+         for (String serverId: volumesByServer.keySet()) {
+            List<Volume> group = volumesByServer.get(serverId);
+            List<ListenableFuture<? extends Snapshot>> created = Lists.newArrayList();
+
+            // Send the whole group before waiting on any of it
+            for (Volume volume: group) {
+               CreateSnapshotOptions options = CreateSnapshotOptions.Builder
+                     .name(Constants.NAME)
+                     .description("Snapshot of " + volume.getId());
+
+               // Snapshots of attached volumes have to be forced
+               if (!volume.getAttachments().isEmpty()) {
+                  options.force();
+               }
+
+               created.add(cinder.getAsyncApi().getSnapshotApiForZone(Constants.ZONE).create(volume.getId(), options));
+            }
+
+            int started = 0;
+            for (int i = 0; i < created.size(); i++) {
+               final Volume volume = group.get(i);
+               Snapshot snapshot;
+
+               // A create that is rejected, over quota or for a volume in a bad state, only fails that volume
+               try {
+                  snapshot = created.get(i).get();
+               }
+               catch (ExecutionException e) {
+                  System.out.println("  Snapshot of " + volume.getName() + " failed: " + e.getCause().getMessage());
+                  continue;
+               }
+
+               ListenableFuture<Snapshot> future = poller.await(snapshots, snapshot.getId(),
+                     hasStatus(Volume.Status.AVAILABLE), hasStatus(Volume.Status.ERROR));
+
+               Futures.addCallback(future, new FutureCallback<Snapshot>() {
+                  @Override
+                  public void onSuccess(Snapshot snapshot) {
+                     System.out.println(String.format("  %s of %s available after %.1f s", snapshot.getId(),
+                           volume.getName(), (System.currentTimeMillis() - start) / 1000.0));
+                  }
+
+                  @Override
+                  public void onFailure(Throwable t) {
+                     System.out.println("  Snapshot of " + volume.getName() + " failed: " + t.getMessage());
+                  }
+               });
+               available.add(future);
+               started++;
+            }
+
+            System.out.println("  Started " + started + " of " + created.size() + " snapshots for " + serverId);
+         }
+
+         ListenableFuture<List<Snapshot>> all = Futures.successfulAsList(available);
+         List<Snapshot> done;
+         try {
+            done = all.get(FANOUT_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+         }
+         catch (TimeoutException e) {
+            System.out.println("  Timed out, no longer waiting for the snapshots that aren't available yet");
+
+            // Stops the poller from waiting on them, which leaves a null for each in the list
+            for (ListenableFuture<Snapshot> future: available) {
+               future.cancel(false);
+            }
+            done = all.get();
+         }
+         done.removeAll(Collections.singleton(null));
+
+         System.out.println(String.format("  %d of %d snapshots available after %.1f s with %d snapshot listings",
+               done.size(), volumesByServer.size(), (System.currentTimeMillis() - start) / 1000.0,
+               poller.getListCalls()));
+      }
+      finally {
+         poller.close();
+      }
+   }
+
+   private static String serverId(Volume volume) {
+      for (VolumeAttachment attachment: volume.getAttachments()) {
+         return "server " + attachment.getServerId();
+      }
+
+      return "unattached volumes";
+   }
+
+   /**
+    * A snapshot that is gone will never get the status, so the wait for it fails.
+    */
+   private static Predicate<Snapshot> hasStatus(final Volume.Status status) {
+      return new Predicate<Snapshot>() {
+         @Override
+         public boolean apply(Snapshot snapshot) {
+            if (snapshot == null) {
+               throw new IllegalStateException("Snapshot is gone while waiting for " + status);
+            }
+
+            return snapshot.getStatus() == status;
+         }
+      };
+   }
+
    /**
     * Always close your service when you're done with it.
     */
@@ -22,8 +22,13 @@ import static com.google.common.io.Closeables.closeQuietly;
 import static org.jclouds.scriptbuilder.domain.Statements.exec;
 
 import java.io.Closeable;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.jclouds.ContextBuilder;
@@ -35,6 +40,7 @@ import org.jclouds.compute.domain.ExecResponse;
 import org.jclouds.compute.domain.NodeMetadata;
 import org.jclouds.compute.domain.Template;
 import org.jclouds.compute.options.RunScriptOptions;
+import org.jclouds.examples.rackspace.StatusPoller;
 import org.jclouds.openstack.cinder.v1.CinderApi;
 import org.jclouds.openstack.cinder.v1.CinderApiMetadata;
 import org.jclouds.openstack.cinder.v1.CinderAsyncApi;
@@ -51,16 +57,33 @@ import org.jclouds.scriptbuilder.ScriptBuilder;
 import org.jclouds.scriptbuilder.domain.OsFamily;
 import org.jclouds.sshj.config.SshjSshClientModule;
 
+import com.google.common.base.Predicate;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.Module;
 
 /**
  * This example creates a volume, attaches it to a server, putting a filesystem on it, and mounts it for use.
  * 
+ * In pipelined mode the server and several volumes are created at the same time, and each volume is attached and
+ * mounted as soon as both it and the server are ready, so the whole run takes about as long as the slowest branch.
+ * A StatusPoller watches all of the volumes with one listing per poll.
+ * 
+ * In benchmark mode a volume of each type is created, attached and measured with a VolumeBenchmark instead.
+ * 
  * @author Everett Toews
  */
 public class CreateVolumeAndAttach implements Closeable {
+   // How long the pipelined mode waits for the server and every volume to be ready and mounted
+   private static final long PIPELINE_TIMEOUT_MINUTES = 30;
+
    private ComputeService compute;
    private RestContext<NovaApi, NovaAsyncApi> nova;
    private VolumeAttachmentApi volumeAttachmentApi;
@@ -73,16 +96,32 @@ public class CreateVolumeAndAttach implements Closeable {
     * 
     * The first argument (args[0]) must be your username
     * The second argument (args[1]) must be your API key
+    * The optional third argument (args[2]) is "pipelined" to create the server and the volumes at the same time
+    * The optional fourth argument (args[3]) is the number of volumes in pipelined mode, the default is 2
+    * Or the optional third argument (args[2]) is "benchmark" to measure the throughput of each volume type
+    * The optional fourth argument (args[3]) is then a comma separated list of volume types, the default is SATA,SSD
     */
    public static void main(String[] args) {
       CreateVolumeAndAttach createVolumeAndAttach = new CreateVolumeAndAttach();
 
       try {
          createVolumeAndAttach.init(args);
-         NodeMetadata node = createVolumeAndAttach.createServer();
-         Volume volume = createVolumeAndAttach.createVolume();
-         createVolumeAndAttach.attachVolume(volume, node);
-         createVolumeAndAttach.mountVolume(node);
+
+         if (args.length > 2 && "pipelined".equals(args[2])) {
+            int numVolumes = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+            createVolumeAndAttach.createAndAttachPipelined(numVolumes);
+         }
+         else if (args.length > 2 && "benchmark".equals(args[2])) {
+            String volumeTypes = args.length > 3 ? args[3] : "SATA,SSD";
+            createVolumeAndAttach.benchmarkVolumeTypes(
+                  ImmutableList.copyOf(Splitter.on(',').trimResults().split(volumeTypes)));
+         }
+         else {
+            NodeMetadata node = createVolumeAndAttach.createServer();
+            Volume volume = createVolumeAndAttach.createVolume();
+            createVolumeAndAttach.attachVolume(volume, node);
+            createVolumeAndAttach.mountVolume(node);
+         }
       }
       catch (Exception e) {
          e.printStackTrace();
@@ -208,6 +247,172 @@ public class CreateVolumeAndAttach implements Closeable {
       }
    }
 
+   /**
+    * This method will create the server and the volumes at once. Each volume gets its own task, which waits for the
+    * server and its volume, attaches the volume as the next free device, waits for it to be in use and mounts it.
+    * Mounting is done one volume at a time because the scripts all run on the same server.
+    */
+   private void createAndAttachPipelined(int numVolumes)
+         throws InterruptedException, ExecutionException, TimeoutException {
+      System.out.println("Create Server And Volumes (pipelined)");
+
+      final long start = System.currentTimeMillis();
+      final StatusPoller poller = new StatusPoller(5, 20, TimeUnit.SECONDS);
+      final StatusPoller.Source<Volume> volumes = StatusPoller.volumes(cinder.getApi(), Constants.ZONE);
+      ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
+
+      try {
+         final ListenableFuture<NodeMetadata> server = executor.submit(new Callable<NodeMetadata>() {
+            @Override
+            public NodeMetadata call() throws Exception {
+               NodeMetadata node = createServer();
+               System.out.println(String.format("  Server ready after %.1f s", elapsed(start)));
+               return node;
+            }
+         });
+
+         List<ListenableFuture<String>> branches = Lists.newArrayList();
+         final Object mountLock = new Object();
+
+         for (int i = 0; i < numVolumes; i++) {
+            final String device = device(i);
+            final String mountPoint = "/mnt/" + Constants.NAME + "-" + i;
+            final Volume volume = volumeApi.create(100, CreateVolumeOptions.Builder.name(Constants.NAME + "-" + i));
+            final ListenableFuture<Volume> available = poller.await(volumes, volume.getId(),
+                  hasStatus(Volume.Status.AVAILABLE), hasStatus(Volume.Status.ERROR));
+
+            branches.add(executor.submit(new Callable<String>() {
+               @Override
+               public String call() throws Exception {
+                  available.get();
+                  double availableAt = elapsed(start);
+                  NodeMetadata node = server.get();
+
+                  volumeAttachmentApi.attachVolumeToServerAsDevice(volume.getId(), node.getProviderId(), device);
+                  poller.await(volumes, volume.getId(), hasStatus(Volume.Status.IN_USE),
+                        hasStatus(Volume.Status.ERROR)).get();
+                  double attachedAt = elapsed(start);
+
+                  synchronized (mountLock) {
+                     mountVolume(node, device, mountPoint);
+                  }
+
+                  return String.format("%s on %s: available %.1f s, attached %.1f s, mounted %.1f s",
+                        volume.getId(), mountPoint, availableAt, attachedAt, elapsed(start));
+               }
+            }));
+         }
+
+         ListenableFuture<List<String>> timings = Futures.allAsList(branches);
+         try {
+            for (String timing: timings.get(PIPELINE_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+               System.out.println("  " + timing);
+            }
+         }
+         finally {
+            // Stops the branches that are still waiting
+            timings.cancel(true);
+         }
+
+         System.out.println(String.format("  Done after %.1f s with %d volume listings", elapsed(start),
+               poller.getListCalls()));
+      }
+      finally {
+         executor.shutdownNow();
+         poller.close();
+      }
+   }
+
+   private void mountVolume(NodeMetadata node, String device, String mountPoint) {
+      String script = new ScriptBuilder()
+            .addStatement(exec("mkfs -t ext4 " + device))
+            .addStatement(exec("mkdir -p " + mountPoint))
+            .addStatement(exec("mount " + device + " " + mountPoint))
+            .render(OsFamily.UNIX);
+
+      RunScriptOptions options = RunScriptOptions.Builder
+            .blockOnComplete(true)
+            .overrideLoginPassword(Constants.PASSWORD);
+
+      ExecResponse response = compute.runScriptOnNode(node.getId(), script, options);
+
+      if (response.getExitStatus() != 0) {
+         throw new IllegalStateException("Mounting " + device + " failed: " + response.getOutput());
+      }
+   }
+
+   /**
+    * This method will create a server and then, one volume type at a time, create a volume of that type, attach and
+    * mount it, and benchmark it with a VolumeBenchmark. The volumes are benchmarked one after the other so they don't
+    * compete for the network of the server.
+    */
+   private void benchmarkVolumeTypes(List<String> volumeTypes) throws RunNodesException, TimeoutException {
+      NodeMetadata node = createServer();
+
+      System.out.println("Benchmark Volume Types");
+
+      RunScriptOptions options = RunScriptOptions.Builder
+            .blockOnComplete(true)
+            .overrideLoginPassword(Constants.PASSWORD);
+      VolumeBenchmark benchmark = new VolumeBenchmark(compute, options, 60, "2G");
+      List<VolumeBenchmark.Run> runs = Lists.newArrayList();
+
+      for (int i = 0; i < volumeTypes.size(); i++) {
+         String volumeType = volumeTypes.get(i);
+         String mountPoint = "/mnt/" + Constants.NAME + "-" + volumeType.toLowerCase();
+         Volume volume = volumeApi.create(100, CreateVolumeOptions.Builder
+               .name(Constants.NAME + "-" + volumeType.toLowerCase())
+               .volumeType(volumeType));
+
+         if (!VolumePredicates.awaitAvailable(volumeApi).apply(volume)) {
+            throw new TimeoutException("Timeout on volume: " + volume);
+         }
+
+         volumeAttachmentApi.attachVolumeToServerAsDevice(volume.getId(), node.getProviderId(), device(i));
+
+         if (!VolumePredicates.awaitInUse(volumeApi).apply(volume)) {
+            throw new TimeoutException("Timeout on volume: " + volume);
+         }
+
+         mountVolume(node, device(i), mountPoint);
+
+         // Get the volume again for its type and size
+         VolumeBenchmark.Run run = benchmark.run(node.getId(), volumeApi.get(volume.getId()), mountPoint);
+         System.out.println("  " + run);
+         runs.add(run);
+      }
+
+      System.out.println(VolumeBenchmark.report(runs));
+   }
+
+   /**
+    * @return /dev/xvdd, /dev/xvde, ... for 0, 1, ...
+    */
+   private static String device(int i) {
+      return Constants.DEVICE.substring(0, Constants.DEVICE.length() - 1)
+            + (char) (Constants.DEVICE.charAt(Constants.DEVICE.length() - 1) + i);
+   }
+
+   /**
+    * A volume that is gone will never get the status, so the wait for it fails.
+    */
+   private static Predicate<Volume> hasStatus(final Volume.Status status) {
+      return new Predicate<Volume>() {
+         @Override
+         public boolean apply(Volume volume) {
+            if (volume == null) {
+               throw new IllegalStateException("Volume is gone while waiting for " + status);
+            }
+
+            return volume.getStatus() == status;
+         }
+      };
+   }
+
+   private static double elapsed(long start) {
+      return (System.currentTimeMillis() - start) / 1000.0;
+   }
+
    /**
     * Always close your service when you're done with it.
     */
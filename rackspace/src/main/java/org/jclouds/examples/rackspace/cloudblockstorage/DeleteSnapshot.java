@@ -21,6 +21,8 @@ package org.jclouds.examples.rackspace.cloudblockstorage;
 import static com.google.common.io.Closeables.closeQuietly;
 
 import java.io.Closeable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.jclouds.ContextBuilder;
@@ -32,9 +34,13 @@ import org.jclouds.openstack.cinder.v1.features.SnapshotApi;
 import org.jclouds.openstack.cinder.v1.predicates.SnapshotPredicates;
 import org.jclouds.rest.RestContext;
 
+import com.google.common.base.Predicate;
+
 /**
  * This example deletes a snapshot.
  * 
+ * In prune mode it deletes every example snapshot that a SnapshotRetention policy doesn't keep instead.
+ * 
  * @author Everett Toews
  */
 public class DeleteSnapshot implements Closeable {
@@ -47,14 +53,22 @@ public class DeleteSnapshot implements Closeable {
     * 
     * The first argument (args[0]) must be your username The second argument
     * (args[1]) must be your API key
+    * The optional third argument (args[2]) is "prune" to apply a retention policy to the example snapshots
+    * The optional fourth argument (args[3]) is "dry-run" to only report what prune would delete
     */
    public static void main(String[] args) {
       DeleteSnapshot deleteSnapshot = new DeleteSnapshot();
 
       try {
          deleteSnapshot.init(args);
-         Snapshot snapshot = deleteSnapshot.getSnapshot();
-         deleteSnapshot.deleteSnapshot(snapshot);
+
+         if (args.length > 2 && "prune".equals(args[2])) {
+            deleteSnapshot.pruneSnapshots(args.length > 3 && "dry-run".equals(args[3]));
+         }
+         else {
+            Snapshot snapshot = deleteSnapshot.getSnapshot();
+            deleteSnapshot.deleteSnapshot(snapshot);
+         }
       } 
       catch (Exception e) {
          e.printStackTrace();
@@ -106,6 +120,29 @@ public class DeleteSnapshot implements Closeable {
       System.out.println("  " + result);
    }
 
+   /**
+    * Keeps the last 3 snapshots of each volume plus the newest of each of the last 7 days, 4 weeks and 6 months.
+    */
+   private void pruneSnapshots(boolean dryRun) throws InterruptedException, ExecutionException {
+      System.out.println("Prune Snapshots");
+
+      SnapshotRetention.Policy policy = new SnapshotRetention.Policy(3, 7, 4, 6);
+      SnapshotRetention retention = new SnapshotRetention(snapshotApi, 4, 2.0, 10, TimeUnit.MINUTES);
+
+      try {
+         System.out.println("  " + policy);
+         System.out.println(retention.prune(new Predicate<Snapshot>() {
+            @Override
+            public boolean apply(Snapshot snapshot) {
+               return snapshot.getName() != null && snapshot.getName().startsWith(Constants.NAME);
+            }
+         }, policy, dryRun));
+      }
+      finally {
+         retention.close();
+      }
+   }
+
    /**
     * Always close your service when you're done with it.
     */
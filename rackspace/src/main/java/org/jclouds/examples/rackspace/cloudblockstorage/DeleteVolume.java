@@ -40,6 +40,7 @@ import org.jclouds.rest.RestContext;
 public class DeleteVolume implements Closeable {
    private RestContext<CinderApi, CinderAsyncApi> cinder;
    private VolumeApi volumeApi;
+   private BlockStorageTopology topology;
 
    /**
     * To get a username and API key see
@@ -76,16 +77,17 @@ public class DeleteVolume implements Closeable {
             .credentials(username, apiKey)
             .build(CinderApiMetadata.CONTEXT_TOKEN);
       volumeApi = cinder.getApi().getVolumeApiForZone(Constants.ZONE);
+      topology = new BlockStorageTopology(cinder.getApi(), Constants.ZONE);
    }
 
    /**
     * @return Volume The Volume created in the CreateVolumeAndAttach example
     */
    private Volume getVolume() {
-      for (Volume volume: volumeApi.list()) {
-         if (volume.getName().startsWith(Constants.NAME)) {
-            return volume;
-         }
+      topology.refreshVolumes();
+
+      for (Volume volume: topology.findVolumes(Constants.NAME)) {
+         return volume;
       }
 
       throw new RuntimeException(Constants.NAME + " not found. Run the CreateVolumeAndAttach example first.");
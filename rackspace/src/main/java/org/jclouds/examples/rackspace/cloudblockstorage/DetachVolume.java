@@ -22,6 +22,8 @@ import static com.google.common.io.Closeables.closeQuietly;
 import static org.jclouds.scriptbuilder.domain.Statements.exec;
 
 import java.io.Closeable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.jclouds.ContextBuilder;
@@ -29,6 +31,7 @@ import org.jclouds.compute.ComputeService;
 import org.jclouds.compute.ComputeServiceContext;
 import org.jclouds.compute.domain.ExecResponse;
 import org.jclouds.compute.options.RunScriptOptions;
+import org.jclouds.examples.rackspace.StatusPoller;
 import org.jclouds.openstack.cinder.v1.CinderApi;
 import org.jclouds.openstack.cinder.v1.CinderApiMetadata;
 import org.jclouds.openstack.cinder.v1.CinderAsyncApi;
@@ -41,29 +44,30 @@ import org.jclouds.openstack.nova.v2_0.domain.Server;
 import org.jclouds.openstack.nova.v2_0.domain.VolumeAttachment;
 import org.jclouds.openstack.nova.v2_0.domain.zonescoped.ZoneAndId;
 import org.jclouds.openstack.nova.v2_0.extensions.VolumeAttachmentApi;
-import org.jclouds.openstack.nova.v2_0.features.ServerApi;
 import org.jclouds.rest.RestContext;
 import org.jclouds.scriptbuilder.ScriptBuilder;
 import org.jclouds.scriptbuilder.domain.OsFamily;
 import org.jclouds.sshj.config.SshjSshClientModule;
 
-import com.google.common.collect.FluentIterable;
+import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.Module;
 
 /**
  * This example detaches the volume created in the CreateVolumeAndAttach example.
  * 
+ * In cleanup mode it unmounts, detaches and deletes every example volume at once with a VolumeCleanup instead.
+ * 
  * @author Everett Toews
  */
 public class DetachVolume implements Closeable {
    private ComputeService compute;
    private RestContext<NovaApi, NovaAsyncApi> nova;
-   private ServerApi serverApi;
    private VolumeAttachmentApi volumeAttachmentApi;
 
    private RestContext<CinderApi, CinderAsyncApi> cinder;
    private VolumeApi volumeApi;
+   private BlockStorageTopology topology;
 
    /**
     * To get a username and API key see
@@ -71,15 +75,22 @@ public class DetachVolume implements Closeable {
     * 
     * The first argument (args[0]) must be your username The second argument
     * (args[1]) must be your API key
+    * The optional third argument (args[2]) is "cleanup" to also delete the volumes, all of them at once
     */
    public static void main(String[] args) {
       DetachVolume detachVolume = new DetachVolume();
 
       try {
          detachVolume.init(args);
-         VolumeAttachment volumeAttachment = detachVolume.getVolumeAttachment();
-         detachVolume.unmountVolume(volumeAttachment);
-         detachVolume.detachVolume(volumeAttachment);
+
+         if (args.length > 2 && "cleanup".equals(args[2])) {
+            detachVolume.cleanupVolumes();
+         }
+         else {
+            VolumeAttachment volumeAttachment = detachVolume.getVolumeAttachment();
+            detachVolume.unmountVolume(volumeAttachment);
+            detachVolume.detachVolume(volumeAttachment);
+         }
       }
       catch (Exception e) {
          e.printStackTrace();
@@ -106,26 +117,33 @@ public class DetachVolume implements Closeable {
       compute = context.getComputeService();
       nova = context.unwrap();
       volumeAttachmentApi = nova.getApi().getVolumeAttachmentExtensionForZone(Constants.ZONE).get();
-      serverApi = nova.getApi().getServerApiForZone(Constants.ZONE);
 
       provider = "rackspace-cloudblockstorage-us";
 
       cinder = ContextBuilder.newBuilder(provider).credentials(username, apiKey).build(CinderApiMetadata.CONTEXT_TOKEN);
       volumeApi = cinder.getApi().getVolumeApiForZone(Constants.ZONE);
+      topology = new BlockStorageTopology(nova.getApi(), cinder.getApi(), Constants.ZONE);
    }
 
    /**
-    * @return Server The Server created in the CreateVolumeAndAttach example
+    * The attachments come with the volume details, so this takes one listing of servers and one of volumes rather
+    * than a listing of attachments for every server.
+    * 
+    * @return VolumeAttachment The VolumeAttachment created in the CreateVolumeAndAttach example
     */
    private VolumeAttachment getVolumeAttachment() {
-      FluentIterable<? extends Server> servers = serverApi.listInDetail().concat();
-
-      for (Server server: servers) {
-         if (server.getName().startsWith(Constants.NAME)) {
-            FluentIterable<? extends VolumeAttachment> attachments = volumeAttachmentApi
-                  .listAttachmentsOnServer(server.getId());
-
-            return attachments.iterator().next();
+      topology.refreshServers();
+      topology.refreshVolumes();
+
+      for (Server server: topology.findServers(Constants.NAME)) {
+         for (org.jclouds.openstack.cinder.v1.domain.VolumeAttachment attachment:
+               topology.getAttachmentsOnServer(server.getId())) {
+            return VolumeAttachment.builder()
+                  .id(attachment.getId())
+                  .volumeId(attachment.getVolumeId())
+                  .serverId(attachment.getServerId())
+                  .device(attachment.getDevice())
+                  .build();
          }
       }
 
@@ -172,6 +190,32 @@ public class DetachVolume implements Closeable {
       System.out.println("  " + result);
    }
 
+   private void cleanupVolumes() throws InterruptedException, ExecutionException {
+      System.out.println("Cleanup Volumes");
+
+      RunScriptOptions options = RunScriptOptions.Builder
+            .overrideLoginUser(Constants.ROOT)
+            .overrideLoginPassword(Constants.PASSWORD)
+            .blockOnComplete(true);
+
+      StatusPoller poller = new StatusPoller(5, 30, TimeUnit.SECONDS);
+      VolumeCleanup cleanup = new VolumeCleanup(compute, nova.getApi(), cinder.getApi(), Constants.ZONE, poller,
+            options, 10, 5, 10, TimeUnit.MINUTES);
+
+      try {
+         System.out.println(cleanup.cleanup(new Predicate<Volume>() {
+            @Override
+            public boolean apply(Volume volume) {
+               return volume.getName() != null && volume.getName().startsWith(Constants.NAME);
+            }
+         }));
+      }
+      finally {
+         cleanup.close();
+         poller.close();
+      }
+   }
+
    /**
     * Always close your service when you're done with it.
     */
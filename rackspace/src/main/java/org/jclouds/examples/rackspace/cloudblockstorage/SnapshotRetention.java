@@ -0,0 +1,405 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudblockstorage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jclouds.openstack.cinder.v1.domain.Snapshot;
+import org.jclouds.openstack.cinder.v1.domain.Volume;
+import org.jclouds.openstack.cinder.v1.features.SnapshotApi;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Prunes the snapshots of every volume down to what a retention policy keeps.
+ *
+ * Snapshots are grouped by the volume they were taken from and each group is sorted newest first. A snapshot is kept
+ * if it is one of the last N, or if it is the newest of one of the last D days, W weeks or M months that have a
+ * snapshot, the same rules as most backup tools. Everything else is deleted, up to concurrency deletes in flight at
+ * once and spaced out by a RateLimiter. Only available snapshots are ever deleted or count towards a rule, one that
+ * is still being created or is in error is kept and left for a later run. A snapshot without a created time can't be
+ * placed in a day, week or month, so it is always kept and doesn't count towards any rule either.
+ *
+ * A dry run works out the same plan and reports it without deleting anything.
+ */
+public class SnapshotRetention implements Closeable {
+   private static final long BYTES_PER_GB = 1024L * 1024L * 1024L;
+   private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+   private static final Comparator<Snapshot> NEWEST_FIRST = new Comparator<Snapshot>() {
+      @Override
+      public int compare(Snapshot a, Snapshot b) {
+         return b.getCreated().compareTo(a.getCreated());
+      }
+   };
+
+   private final SnapshotApi snapshotApi;
+   private final RateLimiter rateLimiter;
+   private final ListeningExecutorService executor;
+   private final long timeoutMillis;
+
+   /**
+    * @param requestsPerSecond the sustained rate of delete requests, see the limits of your account
+    * @param timeout how long to wait for all of the deletes, the ones still running then fail
+    */
+   public SnapshotRetention(SnapshotApi snapshotApi, int concurrency, double requestsPerSecond, long timeout,
+         TimeUnit unit) {
+      checkArgument(concurrency > 0, "concurrency must be positive");
+      this.snapshotApi = checkNotNull(snapshotApi, "snapshotApi");
+      this.rateLimiter = RateLimiter.create(requestsPerSecond);
+      this.timeoutMillis = unit.toMillis(timeout);
+      this.executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(concurrency));
+   }
+
+   /**
+    * @param selector the snapshots the policy applies to, the others are left alone and not reported
+    * @return the snapshots to keep and to delete, without deleting anything
+    */
+   public Plan plan(Predicate<? super Snapshot> selector, Policy policy) {
+      ListMultimap<String, Snapshot> snapshotsByVolume = ArrayListMultimap.create();
+
+      // Cinder returns every snapshot of the account in one listing
+      for (Snapshot snapshot: snapshotApi.listInDetail().filter(selector)) {
+         snapshotsByVolume.put(snapshot.getVolumeId(), snapshot);
+      }
+
+      List<Snapshot> keep = Lists.newArrayList();
+      List<Snapshot> delete = Lists.newArrayList();
+
+      for (String volumeId: snapshotsByVolume.keySet()) {
+         List<Snapshot> snapshots = Lists.newArrayList();
+
+         // A snapshot that isn't available can't take the place of one that is
+         for (Snapshot snapshot: snapshotsByVolume.get(volumeId)) {
+            if (snapshot.getCreated() == null || snapshot.getStatus() != Volume.Status.AVAILABLE) {
+               keep.add(snapshot);
+            }
+            else {
+               snapshots.add(snapshot);
+            }
+         }
+
+         Collections.sort(snapshots, NEWEST_FIRST);
+         Set<Snapshot> kept = policy.select(snapshots);
+
+         for (Snapshot snapshot: snapshots) {
+            if (kept.contains(snapshot)) {
+               keep.add(snapshot);
+            }
+            else {
+               delete.add(snapshot);
+            }
+         }
+      }
+
+      return new Plan(keep, delete);
+   }
+
+   /**
+    * @param dryRun true to only report what would be deleted
+    */
+   public Report prune(Predicate<? super Snapshot> selector, Policy policy, boolean dryRun)
+         throws InterruptedException, ExecutionException {
+      long start = System.currentTimeMillis();
+      Plan plan = plan(selector, policy);
+
+      if (dryRun) {
+         return new Report(plan, ImmutableList.<Result> of(), true, System.currentTimeMillis() - start);
+      }
+
+      List<ListenableFuture<Result>> results = Lists.newArrayList();
+
+      for (final Snapshot snapshot: plan.getDelete()) {
+         results.add(executor.submit(new Callable<Result>() {
+            @Override
+            public Result call() {
+               rateLimiter.acquire();
+
+               try {
+                  return new Result(snapshot, snapshotApi.delete(snapshot.getId()) ? null
+                        : new IllegalStateException("delete not accepted"));
+               }
+               catch (RuntimeException e) {
+                  return new Result(snapshot, e);
+               }
+            }
+         }));
+      }
+
+      long deadline = System.currentTimeMillis() + timeoutMillis;
+      List<Result> deleted = Lists.newArrayList();
+
+      for (int i = 0; i < results.size(); i++) {
+         try {
+            deleted.add(results.get(i).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+         }
+         catch (TimeoutException e) {
+            results.get(i).cancel(true);
+            deleted.add(new Result(plan.getDelete().get(i), new TimeoutException("delete timed out")));
+         }
+      }
+
+      return new Report(plan, deleted, false, System.currentTimeMillis() - start);
+   }
+
+   @Override
+   public void close() {
+      executor.shutdownNow();
+   }
+
+   /**
+    * How many snapshots of each volume to keep. A snapshot kept by any rule is kept.
+    */
+   public static class Policy {
+      private final int last;
+      private final int daily;
+      private final int weekly;
+      private final int monthly;
+
+      /**
+       * @param last the number of newest snapshots to keep
+       * @param daily the number of days to keep the newest snapshot of
+       * @param weekly the number of weeks to keep the newest snapshot of
+       * @param monthly the number of months to keep the newest snapshot of
+       */
+      public Policy(int last, int daily, int weekly, int monthly) {
+         checkArgument(last >= 0 && daily >= 0 && weekly >= 0 && monthly >= 0, "counts must not be negative");
+         this.last = last;
+         this.daily = daily;
+         this.weekly = weekly;
+         this.monthly = monthly;
+      }
+
+      /**
+       * @param snapshots the snapshots of one volume that have a created time, newest first
+       */
+      Set<Snapshot> select(List<Snapshot> snapshots) {
+         Set<Snapshot> kept = Sets.newHashSet(snapshots.subList(0, Math.min(last, snapshots.size())));
+
+         kept.addAll(newestPerBucket(snapshots, daily, Calendar.DAY_OF_YEAR));
+         kept.addAll(newestPerBucket(snapshots, weekly, Calendar.WEEK_OF_YEAR));
+         kept.addAll(newestPerBucket(snapshots, monthly, Calendar.MONTH));
+
+         return kept;
+      }
+
+      /**
+       * Walks the snapshots newest first and takes the first one of each new bucket until count buckets are taken.
+       */
+      private static List<Snapshot> newestPerBucket(List<Snapshot> snapshots, int count, int field) {
+         List<Snapshot> newest = Lists.newArrayList();
+         long lastBucket = Long.MIN_VALUE;
+
+         for (Snapshot snapshot: snapshots) {
+            if (newest.size() == count) {
+               break;
+            }
+
+            long bucket = bucket(snapshot.getCreated().getTime(), field);
+
+            if (bucket != lastBucket) {
+               newest.add(snapshot);
+               lastBucket = bucket;
+            }
+         }
+
+         return newest;
+      }
+
+      /**
+       * @return the UTC day, week (starting on Monday) or month that the time falls in, counted from the epoch
+       */
+      private static long bucket(long millis, int field) {
+         long day = millis / MILLIS_PER_DAY;
+
+         if (field == Calendar.DAY_OF_YEAR) {
+            return day;
+         }
+         if (field == Calendar.WEEK_OF_YEAR) {
+            // The epoch was a Thursday
+            return (day + 3) / 7;
+         }
+
+         Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+         calendar.setTimeInMillis(millis);
+         return calendar.get(Calendar.YEAR) * 12L + calendar.get(Calendar.MONTH);
+      }
+
+      @Override
+      public String toString() {
+         return String.format("keep last %d, daily %d, weekly %d, monthly %d", last, daily, weekly, monthly);
+      }
+   }
+
+   public static class Plan {
+      private final List<Snapshot> keep;
+      private final List<Snapshot> delete;
+
+      Plan(List<Snapshot> keep, List<Snapshot> delete) {
+         this.keep = ImmutableList.copyOf(keep);
+         this.delete = ImmutableList.copyOf(delete);
+      }
+
+      public List<Snapshot> getKeep() {
+         return keep;
+      }
+
+      public List<Snapshot> getDelete() {
+         return delete;
+      }
+   }
+
+   public static class Result {
+      private final Snapshot snapshot;
+      private final Exception error;
+
+      Result(Snapshot snapshot, Exception error) {
+         this.snapshot = snapshot;
+         this.error = error;
+      }
+
+      public Snapshot getSnapshot() {
+         return snapshot;
+      }
+
+      public boolean isSuccess() {
+         return error == null;
+      }
+
+      /**
+       * @return the reason the delete failed, or null if it succeeded
+       */
+      public Exception getError() {
+         return error;
+      }
+
+      @Override
+      public String toString() {
+         return String.format("%s (%s of %s, %d GB) %s", snapshot.getName(), snapshot.getId(), snapshot.getVolumeId(),
+               snapshot.getSize(), error == null ? "deleted" : "failed: " + error.getMessage());
+      }
+   }
+
+   public static class Report {
+      private final Plan plan;
+      private final List<Result> results;
+      private final boolean dryRun;
+      private final long millis;
+
+      Report(Plan plan, List<Result> results, boolean dryRun, long millis) {
+         this.plan = plan;
+         this.results = ImmutableList.copyOf(results);
+         this.dryRun = dryRun;
+         this.millis = millis;
+      }
+
+      public Plan getPlan() {
+         return plan;
+      }
+
+      public List<Result> getResults() {
+         return results;
+      }
+
+      /**
+       * @return the size of the deleted snapshots, or of the snapshots that would be deleted in a dry run
+       */
+      public long getBytesReclaimed() {
+         long bytes = 0;
+
+         if (dryRun) {
+            for (Snapshot snapshot: plan.getDelete()) {
+               bytes += snapshot.getSize() * BYTES_PER_GB;
+            }
+         }
+         else {
+            for (Result result: results) {
+               if (result.isSuccess()) {
+                  bytes += result.getSnapshot().getSize() * BYTES_PER_GB;
+               }
+            }
+         }
+
+         return bytes;
+      }
+
+      public int getFailures() {
+         int failures = 0;
+
+         for (Result result: results) {
+            if (!result.isSuccess()) {
+               failures++;
+            }
+         }
+
+         return failures;
+      }
+
+      @Override
+      public String toString() {
+         StringBuilder report = new StringBuilder();
+
+         if (dryRun) {
+            for (Snapshot snapshot: plan.getDelete()) {
+               report.append(String.format("  would delete %s (%s of %s, %d GB)%n", snapshot.getName(),
+                     snapshot.getId(), snapshot.getVolumeId(), snapshot.getSize()));
+            }
+         }
+         else {
+            for (Result result: results) {
+               report.append("  ").append(result).append(String.format("%n"));
+            }
+         }
+
+         if (dryRun) {
+            report.append(String.format("  %d snapshots kept, %d to delete (dry run), %.1f GB to reclaim",
+                  plan.getKeep().size(), plan.getDelete().size(), getBytesReclaimed() / (double) BYTES_PER_GB));
+         }
+         else {
+            report.append(String.format("  %d snapshots kept, %d deleted, %d failed, %.1f GB reclaimed in %.1f s",
+                  plan.getKeep().size(), results.size() - getFailures(), getFailures(),
+                  getBytesReclaimed() / (double) BYTES_PER_GB, millis / 1000.0));
+         }
+
+         return report.toString();
+      }
+   }
+}
@@ -0,0 +1,309 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudblockstorage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.domain.ExecResponse;
+import org.jclouds.compute.options.RunScriptOptions;
+import org.jclouds.openstack.cinder.v1.domain.Volume;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * Measures the throughput of a mounted volume with fio, so choosing between the SATA and SSD volume types (see
+ * ListVolumeTypes) is based on numbers instead of guesswork.
+ *
+ * The workload script runs sequential reads and writes with 1 MB blocks and random reads and writes with 4 KB blocks,
+ * all with direct I/O so the page cache of the server doesn't flatter the volume. fio has to be installed on the
+ * server or installable with yum or apt-get, on CentOS it comes from EPEL.
+ *
+ * Building the script, parsing its output and writing the report don't touch the network, so they can be run against
+ * saved output. Running this class with arguments of the form type:sizeGB:file prints the report for saved outputs.
+ */
+public class VolumeBenchmark {
+   private static final String SECTION = "=== ";
+   private static final String BENCHMARK_FILE = "jclouds-benchmark";
+
+   // fio 2.x:  write: io=7392.0MB, bw=126150KB/s, iops=123, runt= 60001msec
+   private static final Pattern FIO_2 = Pattern.compile(
+         "(?:read|write)\\s*:\\s*io=[^,]*,\\s*bw=([0-9.]+)([KMG]?B)/s,\\s*iops=([0-9.]+)([kM]?)");
+
+   // fio 3.x:  write: IOPS=1234, BW=123MiB/s (129MB/s)(7392MiB/60001msec)
+   private static final Pattern FIO_3 = Pattern.compile(
+         "(?:read|write)\\s*:\\s*IOPS=([0-9.]+)([kM]?),\\s*BW=([0-9.]+)([KMG]?i?B)/s");
+
+   private static final Map<String, Double> MIB_PER_UNIT = ImmutableMap.<String, Double> builder()
+         .put("B", 1.0 / (1024 * 1024))
+         .put("KiB", 1.0 / 1024)
+         .put("MiB", 1.0)
+         .put("GiB", 1024.0)
+         // fio 2.x says KB and MB but means KiB and MiB
+         .put("KB", 1.0 / 1024)
+         .put("MB", 1.0)
+         .put("GB", 1024.0)
+         .build();
+
+   private static final Map<String, Double> IOPS_MULTIPLIER = ImmutableMap.of("", 1.0, "k", 1000.0, "M", 1000000.0);
+
+   private final ComputeService compute;
+   private final RunScriptOptions loginOptions;
+   private final int runtimeSeconds;
+   private final String fileSize;
+
+   /**
+    * @param loginOptions how to log in to the server, these should block on complete
+    * @param runtimeSeconds how long each workload runs
+    * @param fileSize the size of the file the workloads run against, in fio units like 1G, bigger than the RAM of the
+    *        server for the sequential reads to come from the volume
+    */
+   public VolumeBenchmark(ComputeService compute, RunScriptOptions loginOptions, int runtimeSeconds, String fileSize) {
+      checkArgument(runtimeSeconds > 0, "runtimeSeconds must be positive");
+      this.compute = checkNotNull(compute, "compute");
+      this.loginOptions = checkNotNull(loginOptions, "loginOptions");
+      this.runtimeSeconds = runtimeSeconds;
+      this.fileSize = checkNotNull(fileSize, "fileSize");
+   }
+
+   /**
+    * Runs every workload against the volume mounted at mountPoint on the node, one after the other.
+    */
+   public Run run(String nodeId, Volume volume, String mountPoint) {
+      ExecResponse response = compute.runScriptOnNode(nodeId, script(mountPoint, runtimeSeconds, fileSize),
+            loginOptions);
+
+      if (response.getExitStatus() != 0) {
+         throw new IllegalStateException("Benchmark of " + volume.getId() + " failed: " + response.getError());
+      }
+
+      return new Run(volume.getVolumeType(), volume.getSize(), parse(response.getOutput()));
+   }
+
+   /**
+    * Prints the report for saved benchmark outputs, each argument is type:sizeGB:file.
+    */
+   public static void main(String[] args) throws IOException {
+      List<Run> runs = Lists.newArrayList();
+
+      for (String arg: args) {
+         List<String> parts = ImmutableList.copyOf(Splitter.on(':').limit(3).split(arg));
+         checkArgument(parts.size() == 3, "expected type:sizeGB:file, got %s", arg);
+
+         String output = Files.toString(new File(parts.get(2)), Charsets.UTF_8);
+         runs.add(new Run(parts.get(0), Integer.parseInt(parts.get(1)), parse(output)));
+      }
+
+      System.out.println(report(runs));
+   }
+
+   /**
+    * @return the shell script that installs fio if needed, runs every workload and removes its file
+    */
+   public static String script(String mountPoint, int runtimeSeconds, String fileSize) {
+      String file = mountPoint + "/" + BENCHMARK_FILE;
+      StringBuilder script = new StringBuilder()
+            .append("which fio >/dev/null 2>&1 || yum -y install fio || apt-get -y install fio || exit 1\n");
+
+      for (Workload workload: Workload.values()) {
+         script.append("echo '").append(SECTION).append(workload.job).append("'\n")
+               .append(String.format("fio --name=%s --filename=%s --size=%s --rw=%s --bs=%s --direct=1 "
+                     + "--ioengine=libaio --iodepth=32 --runtime=%d --time_based --group_reporting || exit 1%n",
+                     workload.job, file, fileSize, workload.rw, workload.blockSize, runtimeSeconds));
+      }
+
+      return script.append("rm -f ").append(file).append('\n').toString();
+   }
+
+   /**
+    * @param output the output of the script, from fio 2.x or 3.x
+    * @return the metrics of each workload found in the output
+    */
+   public static Map<Workload, Metrics> parse(String output) {
+      Map<Workload, Metrics> metrics = new EnumMap<Workload, Metrics>(Workload.class);
+      Workload current = null;
+
+      for (String line: Splitter.on('\n').split(output)) {
+         if (line.startsWith(SECTION)) {
+            current = Workload.fromJob(line.substring(SECTION.length()).trim());
+            continue;
+         }
+         if (current == null || metrics.containsKey(current)) {
+            continue;
+         }
+
+         Matcher fio3 = FIO_3.matcher(line);
+         Matcher fio2 = FIO_2.matcher(line);
+
+         if (fio3.find()) {
+            metrics.put(current, new Metrics(iops(fio3.group(1), fio3.group(2)), mib(fio3.group(3), fio3.group(4))));
+         }
+         else if (fio2.find()) {
+            metrics.put(current, new Metrics(iops(fio2.group(3), fio2.group(4)), mib(fio2.group(1), fio2.group(2))));
+         }
+      }
+
+      return metrics;
+   }
+
+   /**
+    * @return a table with a row per run, sorted by volume type and size, with MiB/s for the sequential workloads and
+    *         IOPS for the random ones
+    */
+   public static String report(List<Run> runs) {
+      List<Run> sorted = Lists.newArrayList(runs);
+      Collections.sort(sorted, new Comparator<Run>() {
+         @Override
+         public int compare(Run a, Run b) {
+            int byType = a.volumeType.compareTo(b.volumeType);
+            return byType != 0 ? byType : a.sizeGb - b.sizeGb;
+         }
+      });
+
+      StringBuilder report = new StringBuilder(String.format("%-8s %8s %14s %14s %14s %14s",
+            "type", "size", "seq read", "seq write", "rand read", "rand write"));
+
+      for (Run run: sorted) {
+         report.append(String.format("%n%-8s %5d GB %s %s %s %s", run.volumeType, run.sizeGb,
+               column(run, Workload.SEQUENTIAL_READ), column(run, Workload.SEQUENTIAL_WRITE),
+               column(run, Workload.RANDOM_READ), column(run, Workload.RANDOM_WRITE)));
+      }
+
+      return report.toString();
+   }
+
+   private static String column(Run run, Workload workload) {
+      Metrics metrics = run.metrics.get(workload);
+
+      if (metrics == null) {
+         return String.format("%14s", "-");
+      }
+
+      return workload.sequential ? String.format("%8.1f MiB/s", metrics.mibPerSecond)
+            : String.format("%9.0f IOPS", metrics.iops);
+   }
+
+   private static double iops(String value, String suffix) {
+      return Double.parseDouble(value) * IOPS_MULTIPLIER.get(suffix);
+   }
+
+   private static double mib(String value, String unit) {
+      return Double.parseDouble(value) * MIB_PER_UNIT.get(unit);
+   }
+
+   public enum Workload {
+      SEQUENTIAL_READ("seqread", "read", "1m", true),
+      SEQUENTIAL_WRITE("seqwrite", "write", "1m", true),
+      RANDOM_READ("randread", "randread", "4k", false),
+      RANDOM_WRITE("randwrite", "randwrite", "4k", false);
+
+      private final String job;
+      private final String rw;
+      private final String blockSize;
+      private final boolean sequential;
+
+      Workload(String job, String rw, String blockSize, boolean sequential) {
+         this.job = job;
+         this.rw = rw;
+         this.blockSize = blockSize;
+         this.sequential = sequential;
+      }
+
+      static Workload fromJob(String job) {
+         for (Workload workload: values()) {
+            if (workload.job.equals(job)) {
+               return workload;
+            }
+         }
+
+         return null;
+      }
+   }
+
+   public static class Metrics {
+      private final double iops;
+      private final double mibPerSecond;
+
+      Metrics(double iops, double mibPerSecond) {
+         this.iops = iops;
+         this.mibPerSecond = mibPerSecond;
+      }
+
+      public double getIops() {
+         return iops;
+      }
+
+      public double getMibPerSecond() {
+         return mibPerSecond;
+      }
+
+      @Override
+      public String toString() {
+         return String.format("%.0f IOPS, %.1f MiB/s", iops, mibPerSecond);
+      }
+   }
+
+   /**
+    * The metrics of every workload on one volume.
+    */
+   public static class Run {
+      private final String volumeType;
+      private final int sizeGb;
+      private final Map<Workload, Metrics> metrics;
+
+      public Run(String volumeType, int sizeGb, Map<Workload, Metrics> metrics) {
+         this.volumeType = checkNotNull(volumeType, "volumeType");
+         this.sizeGb = sizeGb;
+         this.metrics = ImmutableMap.copyOf(metrics);
+      }
+
+      public String getVolumeType() {
+         return volumeType;
+      }
+
+      public int getSizeGb() {
+         return sizeGb;
+      }
+
+      public Map<Workload, Metrics> getMetrics() {
+         return metrics;
+      }
+
+      @Override
+      public String toString() {
+         return volumeType + " " + sizeGb + " GB " + metrics;
+      }
+   }
+}
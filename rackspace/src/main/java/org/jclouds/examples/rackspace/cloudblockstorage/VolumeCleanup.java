@@ -0,0 +1,361 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudblockstorage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.domain.ExecResponse;
+import org.jclouds.compute.options.RunScriptOptions;
+import org.jclouds.examples.rackspace.StatusPoller;
+import org.jclouds.openstack.cinder.v1.CinderApi;
+import org.jclouds.openstack.cinder.v1.domain.Volume;
+import org.jclouds.openstack.cinder.v1.domain.VolumeAttachment;
+import org.jclouds.openstack.nova.v2_0.NovaApi;
+import org.jclouds.openstack.nova.v2_0.domain.zonescoped.ZoneAndId;
+import org.jclouds.openstack.nova.v2_0.extensions.VolumeAttachmentApi;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Predicate;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Unmounts, detaches and deletes every volume that matches a predicate, all at once.
+ *
+ * Each server gets one SSH session that unmounts all of its selected volumes, each device on its own so one that is
+ * busy doesn't keep the others mounted. The sessions run on their own bounded pool so a large batch doesn't open
+ * hundreds of connections at once. As soon as a server's volumes are unmounted they are detached, and each volume is
+ * deleted as soon as it is available again. A shared StatusPoller does all of the waiting with one volume listing per
+ * tick.
+ *
+ * Every volume gets a Result with how long each step took, or the step it failed at and why. A failure only stops
+ * that volume: a volume whose unmount failed is never detached, so no data is lost, and the rest of the batch goes on.
+ */
+public class VolumeCleanup implements Closeable {
+   private static final String UNMOUNTED = "UNMOUNTED ";
+
+   private final ComputeService compute;
+   private final VolumeAttachmentApi volumeAttachmentApi;
+   private final CinderApi cinder;
+   private final String zone;
+   private final StatusPoller poller;
+   private final RunScriptOptions loginOptions;
+   private final long timeoutMillis;
+   private final ListeningExecutorService workers;
+   private final ListeningExecutorService sshSessions;
+
+   /**
+    * @param loginOptions how to log in to the servers to unmount the volumes
+    * @param concurrency the number of volumes worked on at once
+    * @param sshConcurrency the number of SSH sessions open at once
+    * @param timeout how long to wait for each volume to be unmounted, to be detached and to be deleted
+    */
+   public VolumeCleanup(ComputeService compute, NovaApi nova, CinderApi cinder, String zone, StatusPoller poller,
+         RunScriptOptions loginOptions, int concurrency, int sshConcurrency, long timeout, TimeUnit unit) {
+      checkArgument(concurrency > 0 && sshConcurrency > 0, "concurrency must be positive");
+      this.compute = checkNotNull(compute, "compute");
+      this.volumeAttachmentApi = checkNotNull(nova, "nova").getVolumeAttachmentExtensionForZone(zone).get();
+      this.cinder = checkNotNull(cinder, "cinder");
+      this.zone = checkNotNull(zone, "zone");
+      this.poller = checkNotNull(poller, "poller");
+      this.loginOptions = checkNotNull(loginOptions, "loginOptions");
+      this.timeoutMillis = unit.toMillis(timeout);
+      this.workers = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(concurrency));
+      this.sshSessions = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(sshConcurrency));
+   }
+
+   public Report cleanup(Predicate<? super Volume> selector) throws InterruptedException, ExecutionException {
+      long start = System.currentTimeMillis();
+      List<Volume> volumes = ImmutableList.copyOf(cinder.getVolumeApiForZone(zone).listInDetail().filter(selector));
+      ListMultimap<String, String> devicesByServer = ArrayListMultimap.create();
+
+      for (Volume volume: volumes) {
+         for (VolumeAttachment attachment: volume.getAttachments()) {
+            devicesByServer.put(attachment.getServerId(), attachment.getDevice());
+         }
+      }
+
+      Map<String, ListenableFuture<ExecResponse>> unmounts = Maps.newHashMap();
+      for (String serverId: devicesByServer.keySet()) {
+         unmounts.put(serverId, unmount(serverId, devicesByServer.get(serverId)));
+      }
+
+      List<ListenableFuture<Result>> results = Lists.newArrayList();
+      for (Volume volume: volumes) {
+         results.add(workers.submit(new Cleanup(volume, unmounts)));
+      }
+
+      return new Report(Futures.allAsList(results).get(), System.currentTimeMillis() - start);
+   }
+
+   /**
+    * Unmounts every device that is mounted and leaves the others alone, in one session. The devices are independent
+    * of each other, and each one that isn't mounted afterwards is echoed with the UNMOUNTED marker.
+    */
+   private ListenableFuture<ExecResponse> unmount(final String serverId, List<String> devices) {
+      List<String> commands = Lists.newArrayList();
+
+      for (String device: devices) {
+         commands.add(String.format("if ! grep -q '^%s ' /proc/mounts || umount %s; then echo '%s%s'; fi", device,
+               device, UNMOUNTED, device));
+      }
+
+      final String script = Joiner.on('\n').join(commands);
+
+      return sshSessions.submit(new Callable<ExecResponse>() {
+         @Override
+         public ExecResponse call() {
+            String nodeId = ZoneAndId.fromZoneAndId(zone, serverId).slashEncode();
+            return compute.runScriptOnNode(nodeId, script, loginOptions);
+         }
+      });
+   }
+
+   @Override
+   public void close() {
+      workers.shutdownNow();
+      sshSessions.shutdownNow();
+   }
+
+   private class Cleanup implements Callable<Result> {
+      private final Volume volume;
+      private final Map<String, ListenableFuture<ExecResponse>> unmounts;
+
+      Cleanup(Volume volume, Map<String, ListenableFuture<ExecResponse>> unmounts) {
+         this.volume = volume;
+         this.unmounts = unmounts;
+      }
+
+      @Override
+      public Result call() {
+         Result result = new Result(volume);
+         StatusPoller.Source<Volume> volumes = StatusPoller.volumes(cinder, zone);
+         long started = System.currentTimeMillis();
+
+         try {
+            result.stage = Stage.UNMOUNT;
+            for (VolumeAttachment attachment: volume.getAttachments()) {
+               // Not cancelled on a timeout, the other volumes of the server share the session
+               ExecResponse response = unmounts.get(attachment.getServerId()).get(timeoutMillis,
+                     TimeUnit.MILLISECONDS);
+
+               if (!isUnmounted(response, attachment.getDevice())) {
+                  throw new IllegalStateException("umount of " + attachment.getDevice() + " failed: "
+                        + response.getError());
+               }
+            }
+            result.unmountMillis = System.currentTimeMillis() - started;
+
+            result.stage = Stage.DETACH;
+            started = System.currentTimeMillis();
+            if (!volume.getAttachments().isEmpty()) {
+               for (VolumeAttachment attachment: volume.getAttachments()) {
+                  if (!volumeAttachmentApi.detachVolumeFromServer(volume.getId(), attachment.getServerId())) {
+                     throw new IllegalStateException("detach not accepted");
+                  }
+               }
+
+               await(poller.await(volumes, volume.getId(), hasStatus(Volume.Status.AVAILABLE),
+                     hasStatus(Volume.Status.ERROR)));
+            }
+            result.detachMillis = System.currentTimeMillis() - started;
+
+            result.stage = Stage.DELETE;
+            started = System.currentTimeMillis();
+            if (!cinder.getVolumeApiForZone(zone).delete(volume.getId())) {
+               throw new IllegalStateException("delete not accepted");
+            }
+
+            await(poller.await(volumes, volume.getId(), hasStatus(null)));
+            result.deleteMillis = System.currentTimeMillis() - started;
+
+            result.stage = null;
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.error = e;
+         }
+         catch (ExecutionException e) {
+            result.error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+         }
+         catch (Exception e) {
+            result.error = e;
+         }
+
+         return result;
+      }
+   }
+
+   private static boolean isUnmounted(ExecResponse response, String device) {
+      for (String line: Splitter.on('\n').trimResults().split(Strings.nullToEmpty(response.getOutput()))) {
+         if (line.equals(UNMOUNTED + device)) {
+            return true;
+         }
+      }
+
+      return false;
+   }
+
+   /**
+    * Stops the poller from waiting on the volume if it times out.
+    */
+   private void await(ListenableFuture<Volume> future)
+         throws InterruptedException, ExecutionException, TimeoutException {
+      try {
+         future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+      }
+      finally {
+         future.cancel(false);
+      }
+   }
+
+   /**
+    * @param status the status to wait for, or null to wait for the volume to be gone
+    */
+   private static Predicate<Volume> hasStatus(final Volume.Status status) {
+      return new Predicate<Volume>() {
+         @Override
+         public boolean apply(Volume volume) {
+            return status == null ? volume == null : volume != null && volume.getStatus() == status;
+         }
+      };
+   }
+
+   public enum Stage {
+      UNMOUNT, DETACH, DELETE
+   }
+
+   public static class Result {
+      private final Volume volume;
+      private Stage stage;
+      private Exception error;
+      private long unmountMillis = -1;
+      private long detachMillis = -1;
+      private long deleteMillis = -1;
+
+      Result(Volume volume) {
+         this.volume = volume;
+      }
+
+      public Volume getVolume() {
+         return volume;
+      }
+
+      public boolean isSuccess() {
+         return error == null;
+      }
+
+      /**
+       * @return the step the volume failed at, or null if it was deleted
+       */
+      public Stage getFailedStage() {
+         return error == null ? null : stage;
+      }
+
+      /**
+       * @return the reason the cleanup of this volume failed, or null if it was deleted
+       */
+      public Exception getError() {
+         return error;
+      }
+
+      /**
+       * @return how long the step took in milliseconds, or -1 if it wasn't reached
+       */
+      public long getMillis(Stage stage) {
+         switch (stage) {
+            case UNMOUNT:
+               return unmountMillis;
+            case DETACH:
+               return detachMillis;
+            default:
+               return deleteMillis;
+         }
+      }
+
+      @Override
+      public String toString() {
+         if (error != null) {
+            return String.format("%s (%s) failed to %s: %s", volume.getName(), volume.getId(),
+                  stage.name().toLowerCase(), error.getMessage());
+         }
+
+         return String.format("%s (%s) unmounted in %d ms, detached in %d ms, deleted in %d ms", volume.getName(),
+               volume.getId(), unmountMillis, detachMillis, deleteMillis);
+      }
+   }
+
+   public static class Report {
+      private final List<Result> results;
+      private final long millis;
+
+      Report(List<Result> results, long millis) {
+         this.results = ImmutableList.copyOf(results);
+         this.millis = millis;
+      }
+
+      public List<Result> getResults() {
+         return results;
+      }
+
+      public int getFailures() {
+         int failures = 0;
+
+         for (Result result: results) {
+            if (!result.isSuccess()) {
+               failures++;
+            }
+         }
+
+         return failures;
+      }
+
+      @Override
+      public String toString() {
+         StringBuilder report = new StringBuilder();
+
+         for (Result result: results) {
+            report.append("  ").append(result).append(String.format("%n"));
+         }
+
+         return report.append(String.format("  %d volumes, %d deleted, %d failed in %.1f s", results.size(),
+               results.size() - getFailures(), getFailures(), millis / 1000.0)).toString();
+      }
+   }
+}
@@ -0,0 +1,140 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudfiles;
+
+import static com.google.common.io.Closeables.closeQuietly;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.util.List;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStoreContext;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Sign a large batch of Temp URLs with the {@link TempURLSigner} and measure how many URLs per second it signs.
+ *
+ * Only the first batch touches the network, to look up the storage URL and Temp URL key of the account. The
+ * batches after that are pure computation, which is what the reported URLs/s measures.
+ */
+public class BatchTempURLs implements Closeable {
+   private static final int TEN_MINUTES = 10 * 60;
+   private static final int WARM_UP_ROUNDS = 5;
+   private static final int MEASURED_ROUNDS = 10;
+
+   private BlobStoreContext storageContext;
+   private TempURLSigner signer;
+   private int batchSize = 10000;
+
+   /**
+    * To get a username and API key see http://www.jclouds.org/documentation/quickstart/rackspace/
+    *
+    * The first argument (args[0]) must be your username
+    * The second argument (args[1]) must be your API key
+    * The optional third argument (args[2]) is the number of URLs in each batch, the default is 10000
+    */
+   public static void main(String[] args) {
+      BatchTempURLs batchTempURLs = new BatchTempURLs();
+
+      try {
+         batchTempURLs.init(args);
+         batchTempURLs.signBatch();
+         batchTempURLs.measureSigningRate();
+      }
+      catch (Exception e) {
+         e.printStackTrace();
+      }
+      finally {
+         batchTempURLs.close();
+      }
+   }
+
+   private void init(String[] args) {
+      // The provider configures jclouds To use the Rackspace Cloud (US)
+      // To use the Rackspace Cloud (UK) set the provider to "cloudfiles-uk"
+      String provider = "cloudfiles-us";
+
+      String username = args[0];
+      String apiKey = args[1];
+
+      if (args.length > 2) {
+         batchSize = Integer.parseInt(args[2]);
+      }
+
+      storageContext = ContextBuilder.newBuilder(provider)
+            .credentials(username, apiKey)
+            .buildView(BlobStoreContext.class);
+
+      // Look the key up again every 15 minutes in case it was rotated
+      signer = new TempURLSigner(storageContext, 15);
+   }
+
+   private List<TempURLSigner.Request> createRequests() {
+      List<TempURLSigner.Request> requests = Lists.newArrayListWithCapacity(batchSize);
+
+      for (int i = 0; i < batchSize; i++) {
+         String method = i % 2 == 0 ? "GET" : "PUT";
+         requests.add(TempURLSigner.Request.of(Constants.CONTAINER, "object-" + i + ".txt", method, TEN_MINUTES));
+      }
+
+      return requests;
+   }
+
+   private void signBatch() {
+      System.out.println("Sign Batch Of Temp URLs");
+
+      List<URI> urls = signer.sign(createRequests());
+
+      for (URI url: urls.subList(0, Math.min(3, urls.size()))) {
+         System.out.println("  " + url);
+      }
+      System.out.println("  ... " + urls.size() + " URLs");
+   }
+
+   /**
+    * A warm up followed by timed rounds, so the JIT has compiled the signing path before we measure it.
+    */
+   private void measureSigningRate() {
+      System.out.println("Measure Signing Rate");
+
+      List<TempURLSigner.Request> requests = createRequests();
+
+      for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+         signer.sign(requests);
+      }
+
+      long start = System.nanoTime();
+      for (int i = 0; i < MEASURED_ROUNDS; i++) {
+         signer.sign(requests);
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      System.out.println(String.format("  %d URLs in %.3f s (%.0f URLs/s)",
+            batchSize * MEASURED_ROUNDS, seconds, batchSize * MEASURED_ROUNDS / seconds));
+   }
+
+   /**
+    * Always close your service when you're done with it.
+    */
+   public void close() {
+      closeQuietly(storageContext);
+   }
+}
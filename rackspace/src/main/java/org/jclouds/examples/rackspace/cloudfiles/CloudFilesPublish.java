@@ -18,6 +18,7 @@
  */
 package org.jclouds.examples.rackspace.cloudfiles;
 
+import static com.google.common.io.BaseEncoding.base16;
 import static com.google.common.io.Closeables.closeQuietly;
 
 import java.io.BufferedWriter;
@@ -26,21 +27,71 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 
 import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.cloudfiles.CloudFilesApiMetadata;
 import org.jclouds.cloudfiles.CloudFilesClient;
+import org.jclouds.http.HttpRequest;
+import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpResponseException;
 import org.jclouds.openstack.swift.CommonSwiftAsyncClient;
 import org.jclouds.openstack.swift.CommonSwiftClient;
+import org.jclouds.openstack.swift.domain.ObjectInfo;
 import org.jclouds.openstack.swift.domain.SwiftObject;
 import org.jclouds.rest.RestContext;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
 /**
  * This example will create a container, put a file in it, and publish it on the internet!
+ * 
+ * Given a directory it will instead publish a whole site. Files are uploaded concurrently with a Content-Type and 
+ * Cache-Control header chosen by extension, and files whose MD5 matches the ETag of the object already in the 
+ * container are skipped, so publishing again only uploads what changed. Once the container is on the CDN, a list 
+ * of hot paths can be requested through the CDN so the edge caches are warm before the first visitors arrive.
  */
 public class CloudFilesPublish implements Closeable {
+   private static final int CONCURRENCY = 16;
+   private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+   private static final String DEFAULT_CACHE_CONTROL = "public, max-age=3600";
+
+   private static final Map<String, String> CONTENT_TYPES = ImmutableMap.<String, String> builder()
+         .put("html", "text/html").put("htm", "text/html").put("css", "text/css")
+         .put("js", "application/javascript").put("json", "application/json").put("xml", "application/xml")
+         .put("txt", "text/plain").put("svg", "image/svg+xml").put("png", "image/png").put("jpg", "image/jpeg")
+         .put("jpeg", "image/jpeg").put("gif", "image/gif").put("ico", "image/x-icon").put("woff", "font/woff")
+         .put("pdf", "application/pdf")
+         .build();
+
+   // Pages change with every publish, assets are usually versioned by name and can be cached much longer
+   private static final Map<String, String> CACHE_CONTROL = ImmutableMap.<String, String> builder()
+         .put("html", "public, max-age=300").put("htm", "public, max-age=300")
+         .put("css", "public, max-age=86400").put("js", "public, max-age=86400")
+         .put("png", "public, max-age=604800").put("jpg", "public, max-age=604800")
+         .put("jpeg", "public, max-age=604800").put("gif", "public, max-age=604800")
+         .put("svg", "public, max-age=604800").put("ico", "public, max-age=604800")
+         .put("woff", "public, max-age=604800")
+         .build();
+
+   private BlobStoreContext storageContext;
    private BlobStore storage;
    private RestContext<CommonSwiftClient, CommonSwiftAsyncClient> swift;
    private CloudFilesClient rackspace;
@@ -50,6 +101,8 @@ public class CloudFilesPublish implements Closeable {
     * 
     * The first argument (args[0]) must be your username
     * The second argument (args[1]) must be your API key
+    * The optional third argument (args[2]) is a directory to publish as a site
+    * The optional fourth argument (args[3]) is a file listing paths to prefetch through the CDN, one per line
     */
    public static void main(String[] args) {
       CloudFilesPublish cloudFilesPublish = new CloudFilesPublish();
@@ -57,10 +110,21 @@ public class CloudFilesPublish implements Closeable {
       try {
          cloudFilesPublish.init(args);
          cloudFilesPublish.createContainer();
-         cloudFilesPublish.createObjectFromFile();
-         cloudFilesPublish.enableCdnContainer();
+
+         if (args.length > 2) {
+            cloudFilesPublish.publishDirectory(new File(args[2]));
+            URI cdnURI = cloudFilesPublish.enableCdnContainer();
+
+            if (args.length > 3) {
+               cloudFilesPublish.prefetch(cdnURI, new File(args[3]));
+            }
+         }
+         else {
+            cloudFilesPublish.createObjectFromFile();
+            cloudFilesPublish.enableCdnContainer();
+         }
       }
-      catch (IOException e) {
+      catch (Exception e) {
          e.printStackTrace();
       }
       finally {
@@ -76,12 +140,12 @@ public class CloudFilesPublish implements Closeable {
       String username = args[0];
       String apiKey = args[1];
 
-      BlobStoreContext context = ContextBuilder.newBuilder(provider)
+      storageContext = ContextBuilder.newBuilder(provider)
             .credentials(username, apiKey)
             .buildView(BlobStoreContext.class);
-      storage = context.getBlobStore();
-      swift = context.unwrap();
-      rackspace = context.unwrap(CloudFilesApiMetadata.CONTEXT_TOKEN).getApi();
+      storage = storageContext.getBlobStore();
+      swift = storageContext.unwrap();
+      rackspace = storageContext.unwrap(CloudFilesApiMetadata.CONTEXT_TOKEN).getApi();
    }
 
    /**
@@ -116,20 +180,199 @@ public class CloudFilesPublish implements Closeable {
       System.out.println("  " + Constants.FILENAME + Constants.SUFFIX);
    }
 
+   /**
+    * This method will upload every file below directory that is new or has changed since the last publish.
+    * 
+    * The signed PUT request from jclouds is used so we can add a Cache-Control header to each object.
+    */
+   private void publishDirectory(File directory) throws IOException, InterruptedException, ExecutionException {
+      System.out.println("Publish Directory");
+
+      Map<String, String> eTags = Maps.newHashMap();
+      for (ObjectInfo objectInfo: new PagedObjectIterable(swift, Constants.CONTAINER_PUBLISH)) {
+         eTags.put(objectInfo.getName(), base16().lowerCase().encode(objectInfo.getHash()));
+      }
+
+      List<File> files = Lists.newArrayList();
+      listFiles(directory, files);
+
+      ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(CONCURRENCY));
+      List<ListenableFuture<String>> uploads = Lists.newArrayList();
+      List<String> names = Lists.newArrayList();
+      int unchanged = 0;
+      int failed = 0;
+      long start = System.currentTimeMillis();
+
+      try {
+         for (final File file: files) {
+            final String name = directory.toURI().relativize(file.toURI()).getPath();
+            String md5 = Files.hash(file, Hashing.md5()).toString();
+
+            if (md5.equals(eTags.get(name))) {
+               unchanged++;
+               continue;
+            }
+
+            uploads.add(executor.submit(new Callable<String>() {
+               @Override
+               public String call() {
+                  uploadWithHeaders(name, file);
+                  return name;
+               }
+            }));
+            names.add(name);
+         }
+
+         // A failed upload leaves a null and the others carry on
+         List<String> uploaded = Futures.successfulAsList(uploads).get();
+         for (int i = 0; i < uploaded.size(); i++) {
+            if (uploaded.get(i) != null) {
+               System.out.println("  " + uploaded.get(i));
+            }
+            else {
+               System.out.println("  Failed " + names.get(i) + ": " + uploadError(uploads.get(i)));
+               failed++;
+            }
+         }
+      }
+      finally {
+         executor.shutdownNow();
+      }
+
+      double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+      System.out.println(String.format("  %d uploaded, %d failed, %d unchanged in %.1f s", uploads.size() - failed,
+            failed, unchanged, seconds));
+   }
+
+   private static String uploadError(ListenableFuture<String> upload) throws InterruptedException {
+      try {
+         upload.get();
+         return "no result";
+      }
+      catch (ExecutionException e) {
+         return String.valueOf(e.getCause());
+      }
+   }
+
+   private void uploadWithHeaders(String name, File file) {
+      String extension = Files.getFileExtension(name).toLowerCase();
+      String contentType = CONTENT_TYPES.containsKey(extension) ? CONTENT_TYPES.get(extension) : DEFAULT_CONTENT_TYPE;
+      String cacheControl = CACHE_CONTROL.containsKey(extension) ? CACHE_CONTROL.get(extension) : DEFAULT_CACHE_CONTROL;
+
+      Blob blob = storage.blobBuilder(name)
+            .payload(file)
+            .contentType(contentType)
+            .build();
+
+      HttpRequest request = storageContext.getSigner().signPutBlob(Constants.CONTAINER_PUBLISH, blob).toBuilder()
+            .replaceHeader("Cache-Control", cacheControl)
+            .build();
+
+      checkSuccess(storageContext.utils().http().invoke(request));
+   }
+
+   private static void listFiles(File directory, List<File> files) {
+      File[] children = directory.listFiles();
+
+      if (children == null) {
+         return;
+      }
+
+      for (File child: children) {
+         if (child.isDirectory()) {
+            listFiles(child, files);
+         }
+         else if (child.isFile()) {
+            files.add(child);
+         }
+      }
+   }
+
    /**
     * This method will put your container on a Content Distribution Network and
     * make it 100% publicly accessible over the Internet.
     */
-   private void enableCdnContainer() {
+   private URI enableCdnContainer() {
       System.out.println("Enable CDN Container");
       URI cdnURI = rackspace.enableCDN(Constants.CONTAINER_PUBLISH);
       System.out.println("  Go to " + cdnURI + "/" + Constants.FILENAME + Constants.SUFFIX);
+      return cdnURI;
+   }
+
+   /**
+    * This method will request each hot path through the CDN so the edge caches hold them before the first 
+    * visitors arrive. A fresh CDN container can take a few minutes to start serving, so rerun this if you 
+    * see errors right after enabling the CDN.
+    */
+   private void prefetch(final URI cdnURI, File hotPaths) throws IOException, InterruptedException, 
+         ExecutionException {
+      System.out.println("Prefetch Hot Paths Through The CDN");
+
+      ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(CONCURRENCY));
+      List<ListenableFuture<String>> requests = Lists.newArrayList();
+
+      try {
+         for (String line: Files.readLines(hotPaths, Charsets.UTF_8)) {
+            final String path = line.trim().replaceFirst("^/", "");
+
+            if (path.isEmpty()) {
+               continue;
+            }
+
+            requests.add(executor.submit(new Callable<String>() {
+               @Override
+               public String call() throws IOException {
+                  long start = System.currentTimeMillis();
+                  HttpRequest request = HttpRequest.builder()
+                        .method("GET")
+                        .endpoint(URI.create(cdnURI + "/" + path))
+                        .build();
+                  HttpResponse response = storageContext.utils().http().invoke(request);
+
+                  try {
+                     if (response.getPayload() != null) {
+                        ByteStreams.copy(response.getPayload().getInput(), ByteStreams.nullOutputStream());
+                     }
+                  }
+                  finally {
+                     if (response.getPayload() != null) {
+                        response.getPayload().release();
+                     }
+                  }
+
+                  return path + " " + response.getStatusCode() + " in " + (System.currentTimeMillis() - start) + " ms";
+               }
+            }));
+         }
+
+         for (String result: Futures.successfulAsList(requests).get()) {
+            System.out.println("  " + (result == null ? "failed" : result));
+         }
+      }
+      finally {
+         executor.shutdownNow();
+      }
+   }
+
+   private static void checkSuccess(HttpResponse response) {
+      try {
+         int statusCode = response.getStatusCode();
+
+         if (statusCode < 200 || statusCode > 299) {
+            throw new HttpResponseException(null, response);
+         }
+      }
+      finally {
+         if (response.getPayload() != null) {
+            response.getPayload().release();
+         }
+      }
    }
 
    /**
     * Always close your service when you're done with it.
     */
    public void close() {
-      closeQuietly(storage.getContext());
+      closeQuietly(storageContext);
    }
 }
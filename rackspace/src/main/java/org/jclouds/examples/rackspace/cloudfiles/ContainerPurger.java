@@ -0,0 +1,172 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudfiles;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.jclouds.openstack.swift.options.ListContainerOptions.Builder.maxResults;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jclouds.http.HttpResponseException;
+import org.jclouds.openstack.swift.CommonSwiftAsyncClient;
+import org.jclouds.openstack.swift.CommonSwiftClient;
+import org.jclouds.openstack.swift.domain.ObjectInfo;
+import org.jclouds.rest.RestContext;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Deletes every object in a container and then the container itself.
+ *
+ * The listing is paged with {@link PagedObjectIterable} so containers of any size are purged completely, and deletes are issued
+ * through the async Swift API with at most {@code maxInFlight} requests outstanding. Deletes rejected with 429 or
+ * a 5xx are retried with exponential backoff. The container is only deleted once a listing shows it is empty.
+ */
+public class ContainerPurger {
+   public static final int MAX_ATTEMPTS = 5;
+   public static final long INITIAL_BACKOFF_MILLIS = 500;
+   // Listings are eventually consistent, so an object deleted a moment ago may still be listed
+   public static final int MAX_PASSES = 3;
+
+   private final RestContext<CommonSwiftClient, CommonSwiftAsyncClient> swift;
+   private final int maxInFlight;
+   private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor();
+
+   private final AtomicInteger deleted = new AtomicInteger();
+   private final AtomicInteger retried = new AtomicInteger();
+   private final AtomicInteger failed = new AtomicInteger();
+
+   public ContainerPurger(RestContext<CommonSwiftClient, CommonSwiftAsyncClient> swift, int maxInFlight) {
+      checkArgument(maxInFlight > 0, "maxInFlight must be positive");
+      this.swift = swift;
+      this.maxInFlight = maxInFlight;
+   }
+
+   /**
+    * @return true if the container was emptied and deleted
+    */
+   public boolean purge(String container) throws InterruptedException {
+      long start = System.currentTimeMillis();
+      deleted.set(0);
+      retried.set(0);
+      failed.set(0);
+
+      for (int pass = 0; pass < MAX_PASSES; pass++) {
+         deleteObjects(container);
+
+         if (swift.getApi().listObjects(container, maxResults(1)).isEmpty()) {
+            boolean result = swift.getApi().deleteContainerIfEmpty(container);
+            report(container, start);
+            return result;
+         }
+      }
+
+      report(container, start);
+      return false;
+   }
+
+   /**
+    * Pages through the whole container and deletes each object. Returns when every delete has completed.
+    */
+   private void deleteObjects(String container) throws InterruptedException {
+      Semaphore inFlight = new Semaphore(maxInFlight);
+
+      for (ObjectInfo object: new PagedObjectIterable(swift, container)) {
+         inFlight.acquire();
+         removeObject(container, object.getName(), 1, inFlight);
+      }
+
+      // Wait for the outstanding deletes to finish
+      inFlight.acquire(maxInFlight);
+      inFlight.release(maxInFlight);
+   }
+
+   private void removeObject(final String container, final String name, final int attempt,
+         final Semaphore inFlight) {
+      ListenableFuture<Void> future = swift.getAsyncApi().removeObject(container, name);
+
+      Futures.addCallback(future, new FutureCallback<Void>() {
+         @Override
+         public void onSuccess(Void result) {
+            deleted.incrementAndGet();
+            inFlight.release();
+         }
+
+         @Override
+         public void onFailure(Throwable t) {
+            if (attempt < MAX_ATTEMPTS && isRetryable(t)) {
+               retried.incrementAndGet();
+               long backoff = INITIAL_BACKOFF_MILLIS << (attempt - 1);
+
+               // The permit is kept while waiting so the backoff also slows down new deletes
+               retries.schedule(new Runnable() {
+                  @Override
+                  public void run() {
+                     removeObject(container, name, attempt + 1, inFlight);
+                  }
+               }, backoff, TimeUnit.MILLISECONDS);
+            }
+            else {
+               failed.incrementAndGet();
+               System.err.println("    Failed to delete " + name + ": " + t.getMessage());
+               inFlight.release();
+            }
+         }
+      });
+   }
+
+   /**
+    * Too Many Requests (429) and server errors (5xx) are worth retrying, anything else is not.
+    */
+   static boolean isRetryable(Throwable t) {
+      for (Throwable cause: Throwables.getCausalChain(t)) {
+         if (cause instanceof HttpResponseException) {
+            HttpResponseException e = (HttpResponseException) cause;
+            if (e.getResponse() == null) {
+               return false;
+            }
+            int statusCode = e.getResponse().getStatusCode();
+            return statusCode == 429 || statusCode >= 500;
+         }
+      }
+
+      return false;
+   }
+
+   private void report(String container, long start) {
+      double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+
+      System.out.println(String.format("    %s: %d deleted, %d retried, %d failed in %.1f s (%.0f objects/s)",
+            container, deleted.get(), retried.get(), failed.get(), seconds, deleted.get() / seconds));
+   }
+
+   /**
+    * Stops the retry scheduler.
+    */
+   public void close() {
+      retries.shutdownNow();
+   }
+}
@@ -29,7 +29,6 @@ import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.openstack.swift.CommonSwiftAsyncClient;
 import org.jclouds.openstack.swift.CommonSwiftClient;
 import org.jclouds.openstack.swift.domain.ContainerMetadata;
-import org.jclouds.openstack.swift.domain.ObjectInfo;
 import org.jclouds.openstack.swift.options.ListContainerOptions;
 import org.jclouds.rest.RestContext;
 
@@ -42,12 +41,14 @@ import org.jclouds.rest.RestContext;
 public class DeleteObjectsAndContainer implements Closeable {
    private BlobStore storage;
    private RestContext<CommonSwiftClient, CommonSwiftAsyncClient> swift;
+   private ContainerPurger purger;
 
    /**
     * To get a username and API key see http://www.jclouds.org/documentation/quickstart/rackspace/
     * 
     * The first argument (args[0]) must be your username
     * The second argument (args[1]) must be your API key
+    * The optional third argument (args[2]) is the maximum number of deletes in flight, the default is 50
     */
    public static void main(String[] args) {
       DeleteObjectsAndContainer deleteObjectsAndContainer = new DeleteObjectsAndContainer();
@@ -56,6 +57,9 @@ public class DeleteObjectsAndContainer implements Closeable {
          deleteObjectsAndContainer.init(args);
          deleteObjectsAndContainer.deleteObjectsAndContainer();
       }
+      catch (InterruptedException e) {
+         e.printStackTrace();
+      }
       finally {
          deleteObjectsAndContainer.close();
       }
@@ -74,12 +78,16 @@ public class DeleteObjectsAndContainer implements Closeable {
             .buildView(BlobStoreContext.class);
       storage = context.getBlobStore();
       swift = context.unwrap();
+
+      int maxInFlight = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+      purger = new ContainerPurger(swift, maxInFlight);
    }
 
    /**
     * This will delete all containers that start with {@link CONTAINER} and the objects within those containers.
+    * The objects are deleted concurrently by the {@link ContainerPurger}.
     */
-   private void deleteObjectsAndContainer() {
+   private void deleteObjectsAndContainer() throws InterruptedException {
       System.out.println("Delete Container");
 
       Set<ContainerMetadata> containers = swift.getApi()
@@ -88,15 +96,9 @@ public class DeleteObjectsAndContainer implements Closeable {
       for (ContainerMetadata container: containers) {
          System.out.println("  " + container.getName());
 
-         Set<ObjectInfo> objects = swift.getApi().listObjects(container.getName());
-
-         for (ObjectInfo object: objects) {
-            System.out.println("    " + object.getName());
-
-            swift.getApi().removeObject(container.getName(), object.getName());
+         if (!purger.purge(container.getName())) {
+            System.err.println("  " + container.getName() + " could not be emptied, it was not deleted");
          }
-
-         swift.getApi().deleteContainerIfEmpty(container.getName());
       }
    }
 
@@ -104,6 +106,9 @@ public class DeleteObjectsAndContainer implements Closeable {
     * Always close your service when you're done with it.
     */
    public void close() {
+      if (purger != null) {
+         purger.close();
+      }
       closeQuietly(storage.getContext());
    }
 }
@@ -31,10 +31,6 @@ import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.http.HttpRequest;
 import org.jclouds.http.HttpResponse;
 import org.jclouds.http.HttpResponseException;
-import org.jclouds.util.Strings2;
-
-import com.google.common.base.Charsets;
-import com.google.common.io.Files;
 
 /**
  * The Temporary URL feature (TempURL) allows you to create limited-time Internet addresses which allow you to grant 
@@ -59,12 +55,14 @@ public class GenerateTempURL implements Closeable {
    
    private BlobStore storage;
    private BlobStoreContext storageContext;
+   private int parallelRanges = 1;
 
    /**
     * To get a username and API key see http://www.jclouds.org/documentation/quickstart/rackspace/
     * 
     * The first argument (args[0]) must be your username
     * The second argument (args[1]) must be your API key
+    * The optional third argument (args[2]) is the number of ranged GETs to download with in parallel, the default is 1
     */
    public static void main(String[] args) {
       GenerateTempURL generateTempURL = new GenerateTempURL();
@@ -91,6 +89,10 @@ public class GenerateTempURL implements Closeable {
       String username = args[0];
       String apiKey = args[1];
 
+      if (args.length > 2) {
+         parallelRanges = Integer.parseInt(args[2]);
+      }
+
       storageContext = ContextBuilder.newBuilder(provider)
             .credentials(username, apiKey)
             .buildView(BlobStoreContext.class);
@@ -118,19 +120,19 @@ public class GenerateTempURL implements Closeable {
       }
    }
 
-   private void generateGetTempURL() throws IOException {
+   private void generateGetTempURL() throws IOException, InterruptedException {
       System.out.println("Generate GET Temp URL");
       
       HttpRequest request = storageContext.getSigner().signGetBlob(Constants.CONTAINER, FILENAME, TEN_MINUTES);
       
       System.out.println("  " + request.getMethod() + " " + request.getEndpoint());
       
-      // GET the file using jclouds
+      // GET the file using jclouds, streaming it to disk so large and binary objects are handled too
       File file = File.createTempFile(FILENAME, ".tmp");
-      String content = Strings2.toString(storageContext.utils().http().invoke(request).getPayload());
-      Files.write(content, file, Charsets.UTF_8);
+      SignedURLDownloader downloader = new SignedURLDownloader(storageContext.utils().http());
+      long length = downloader.download(request, file, parallelRanges, SignedURLDownloader.DEFAULT_RANGE_SIZE);
       
-      System.out.println("  GET Success (" + file.getAbsolutePath() + ")");
+      System.out.println("  GET Success (" + file.getAbsolutePath() + ", " + length + " bytes)");
    }
 
    private void generateDeleteTempURL() throws IOException {
@@ -18,10 +18,16 @@
  */
 package org.jclouds.examples.rackspace.cloudfiles;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.io.Closeables.closeQuietly;
 
 import java.io.Closeable;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 
 import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStore;
@@ -29,14 +35,30 @@ import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.openstack.swift.CommonSwiftAsyncClient;
 import org.jclouds.openstack.swift.CommonSwiftClient;
 import org.jclouds.openstack.swift.domain.ContainerMetadata;
+import org.jclouds.openstack.swift.options.ListContainerOptions;
 import org.jclouds.rest.RestContext;
 
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
 /**
  * List the object storage containers associated with your account.
+ * 
+ * In inventory mode the container listing is paged and every container is sent a HEAD for its object and byte 
+ * counts as soon as it shows up in a page, with up to MAX_IN_FLIGHT HEADs outstanding. The HEADs overlap with each 
+ * other and with the listing, so the inventory takes about as long as the listing plus the slowest HEAD instead of 
+ * the sum of all of them. The inventory is printed as CSV or JSON followed by the totals and the largest containers.
  *  
  * @author Everett Toews
  */
 public class ListContainers implements Closeable {
+   // 10000 is the largest page Cloud Files will return
+   private static final int PAGE_SIZE = 10000;
+   private static final int MAX_IN_FLIGHT = 50;
+   private static final int DEFAULT_TOP_N = 10;
+
    private BlobStore storage;
    private RestContext<CommonSwiftClient, CommonSwiftAsyncClient> swift;
 
@@ -45,19 +67,33 @@ public class ListContainers implements Closeable {
     * 
     * The first argument (args[0]) must be your username
     * The second argument (args[1]) must be your API key
+    * The optional third argument (args[2]) is the inventory format, csv or json
+    * The optional fourth argument (args[3]) is how many of the largest containers to report (default 10)
     */
    public static void main(String[] args) {
       ListContainers listContainers = new ListContainers();
 
       try {
          listContainers.init(args);
-         listContainers.listContainers();
+
+         if (args.length > 2) {
+            String format = args[2].toLowerCase();
+            checkArgument(format.equals("csv") || format.equals("json"), "format must be csv or json");
+            int topN = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_TOP_N;
+
+            listContainers.inventory(format, topN);
+         }
+         else {
+            listContainers.listContainers();
+         }
+      }
+      catch (Exception e) {
+         e.printStackTrace();
       }
       finally {
          listContainers.close();
       }
    }
-
    private void init(String[] args) {
       // The provider configures jclouds To use the Rackspace Cloud (US)
       // To use the Rackspace Cloud (UK) set the provider to "cloudfiles-uk"
@@ -82,6 +118,165 @@ public class ListContainers implements Closeable {
       }
    }
 
+   /**
+    * This method will page through the containers and HEAD each one concurrently.
+    */
+   private void inventory(String format, int topN) throws InterruptedException, ExecutionException {
+      long start = System.currentTimeMillis();
+      final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+      List<String> names = Lists.newArrayList();
+      List<ListenableFuture<ContainerMetadata>> heads = Lists.newArrayList();
+      String marker = null;
+
+      while (true) {
+         ListContainerOptions options = ListContainerOptions.Builder.maxResults(PAGE_SIZE);
+         if (marker != null) {
+            options.afterMarker(marker);
+         }
+
+         Set<ContainerMetadata> page = swift.getApi().listContainers(options);
+
+         for (ContainerMetadata container: page) {
+            inFlight.acquire();
+            ListenableFuture<ContainerMetadata> head =
+                  swift.getAsyncApi().getContainerMetadata(container.getName());
+            head.addListener(new Runnable() {
+               @Override
+               public void run() {
+                  inFlight.release();
+               }
+            }, MoreExecutors.sameThreadExecutor());
+
+            names.add(container.getName());
+            heads.add(head);
+            marker = container.getName();
+         }
+
+         if (page.size() < PAGE_SIZE) {
+            break;
+         }
+      }
+
+      // A failed HEAD leaves a null instead of failing the whole inventory
+      List<ContainerMetadata> metadata = Futures.successfulAsList(heads).get();
+      long elapsed = System.currentTimeMillis() - start;
+
+      // The HEAD response only carries the counts, the name comes from the listing
+      List<ContainerSize> containers = Lists.newArrayList();
+      List<String> errors = Lists.newArrayList();
+      for (int i = 0; i < names.size(); i++) {
+         if (metadata.get(i) == null) {
+            errors.add(names.get(i) + ": " + headError(heads.get(i)));
+         }
+         else {
+            containers.add(new ContainerSize(names.get(i), metadata.get(i).getCount(), metadata.get(i).getBytes()));
+         }
+      }
+
+      long totalObjects = 0;
+      long totalBytes = 0;
+      for (ContainerSize container: containers) {
+         totalObjects += container.objects;
+         totalBytes += container.bytes;
+      }
+
+      Collections.sort(containers, new Comparator<ContainerSize>() {
+         @Override
+         public int compare(ContainerSize left, ContainerSize right) {
+            return Long.valueOf(right.bytes).compareTo(left.bytes);
+         }
+      });
+      List<ContainerSize> largest = containers.subList(0, Math.min(topN, containers.size()));
+
+      if (format.equals("csv")) {
+         printCsv(containers, largest, totalObjects, totalBytes);
+      }
+      else {
+         printJson(containers, largest, totalObjects, totalBytes);
+      }
+
+      for (String error: errors) {
+         System.err.println("  Skipped " + error);
+      }
+      System.err.println(String.format("Inventoried %d containers in %d ms, skipped %d", containers.size(), elapsed,
+            errors.size()));
+   }
+
+   /**
+    * @return why the HEAD of a container has no result, it either failed or the container is gone
+    */
+   private static String headError(ListenableFuture<ContainerMetadata> head) throws InterruptedException {
+      try {
+         head.get();
+         return "deleted since it was listed";
+      }
+      catch (ExecutionException e) {
+         return String.valueOf(e.getCause());
+      }
+   }
+
+   private static void printCsv(List<ContainerSize> containers, List<ContainerSize> largest,
+         long totalObjects, long totalBytes) {
+      System.out.println("container,objects,bytes");
+      for (ContainerSize container: containers) {
+         System.out.println(csv(container.name) + "," + container.objects + "," + container.bytes);
+      }
+      System.out.println(csv("TOTAL") + "," + totalObjects + "," + totalBytes);
+
+      System.out.println();
+      System.out.println("rank,container,bytes");
+      for (int i = 0; i < largest.size(); i++) {
+         System.out.println((i + 1) + "," + csv(largest.get(i).name) + "," + largest.get(i).bytes);
+      }
+   }
+
+   private static void printJson(List<ContainerSize> containers, List<ContainerSize> largest,
+         long totalObjects, long totalBytes) {
+      StringBuilder json = new StringBuilder("{\n  \"containers\": [");
+      appendJson(json, containers);
+      json.append("],\n  \"totalObjects\": ").append(totalObjects)
+            .append(",\n  \"totalBytes\": ").append(totalBytes)
+            .append(",\n  \"largest\": [");
+      appendJson(json, largest);
+      json.append("]\n}");
+
+      System.out.println(json);
+   }
+
+   private static void appendJson(StringBuilder json, List<ContainerSize> containers) {
+      for (int i = 0; i < containers.size(); i++) {
+         ContainerSize container = containers.get(i);
+         json.append(i == 0 ? "\n    " : ",\n    ")
+               .append("{\"name\": \"").append(container.name.replace("\\", "\\\\").replace("\"", "\\\""))
+               .append("\", \"objects\": ").append(container.objects)
+               .append(", \"bytes\": ").append(container.bytes).append("}");
+      }
+
+      if (!containers.isEmpty()) {
+         json.append("\n  ");
+      }
+   }
+
+   private static String csv(String value) {
+      if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+         return "\"" + value.replace("\"", "\"\"") + "\"";
+      }
+
+      return value;
+   }
+
+   private static class ContainerSize {
+      private final String name;
+      private final long objects;
+      private final long bytes;
+
+      ContainerSize(String name, long objects, long bytes) {
+         this.name = name;
+         this.objects = objects;
+         this.bytes = bytes;
+      }
+   }
+
    /**
     * Always close your service when you're done with it.
     */
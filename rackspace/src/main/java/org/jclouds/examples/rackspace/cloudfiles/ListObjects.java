@@ -21,7 +21,6 @@ package org.jclouds.examples.rackspace.cloudfiles;
 import static com.google.common.io.Closeables.closeQuietly;
 
 import java.io.Closeable;
-import java.util.Set;
 
 import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStore;
@@ -29,7 +28,6 @@ import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.openstack.swift.CommonSwiftAsyncClient;
 import org.jclouds.openstack.swift.CommonSwiftClient;
 import org.jclouds.openstack.swift.domain.ObjectInfo;
-import org.jclouds.openstack.swift.options.ListContainerOptions;
 import org.jclouds.rest.RestContext;
 
 /**
@@ -75,12 +73,14 @@ public class ListObjects implements Closeable {
       swift = context.unwrap();
    }
 
+   /**
+    * Lists objects a page at a time with {@link PagedObjectIterable}, so containers of any size are listed
+    * completely without holding the whole listing in memory.
+    */
    private void listObjects() {
       System.out.println("List Objects");
 
-      Set<ObjectInfo> objects = swift.getApi().listObjects(Constants.CONTAINER);
-
-      for (ObjectInfo objectInfo: objects) {
+      for (ObjectInfo objectInfo: new PagedObjectIterable(swift, Constants.CONTAINER)) {
          System.out.println("  " + objectInfo);
       }
    }
@@ -88,8 +88,8 @@ public class ListObjects implements Closeable {
    private void listObjectsWithFiltering() {
       System.out.println("List Objects With Filtering");
 
-      ListContainerOptions filter = ListContainerOptions.Builder.withPrefix("createObjectFromString");
-      Set<ObjectInfo> objects = swift.getApi().listObjects(Constants.CONTAINER, filter);
+      Iterable<ObjectInfo> objects = new PagedObjectIterable(swift, Constants.CONTAINER, "createObjectFromString",
+            PagedObjectIterable.DEFAULT_PAGE_SIZE);
 
       for (ObjectInfo objectInfo: objects) {
          System.out.println("  " + objectInfo);
@@ -0,0 +1,1043 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudfiles;
+
+import static com.google.common.io.BaseEncoding.base16;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for Cloud Files, so the cloudfiles examples can be run and load tested without an account.
+ *
+ * It speaks enough of the Swift API for the examples: authentication (v1.0 headers, v1.1 and v2.0 JSON), account,
+ * container and object CRUD with metadata, listings with limit/marker/prefix/delimiter, ranged GETs, server side
+ * copies, dynamic large object manifests, bulk extract of tar archives, Temp URLs and the CDN management API. Any
+ * username and API key are accepted and each username gets its own account. Everything is kept in memory in
+ * sorted concurrent maps, so a listing page costs a seek and a scan of the page rather than of the container.
+ *
+ * Point an example at it by adding the endpoint to its ContextBuilder:
+ *
+ *    ContextBuilder.newBuilder("cloudfiles-us")
+ *          .endpoint("http://localhost:8080")
+ *          .credentials(username, apiKey)
+ *
+ * Static large objects, object versioning and expiring objects are not implemented.
+ */
+public class LocalSwiftServer implements Closeable {
+   public static final int DEFAULT_PORT = 8080;
+   public static final int DEFAULT_THREADS = 64;
+
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+   private static final int MAX_LISTING = 10000;
+   private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+   private static final String OBJECT_META = "x-object-meta-";
+   private static final String HMAC_SHA1 = "HmacSHA1";
+   private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+   private static final Pattern JSON_USERNAME = Pattern.compile("\"username\"\\s*:\\s*\"([^\"]*)\"");
+
+   // Headers stored with an object and returned on GET and HEAD, besides the X-Object-Meta-* ones
+   private static final String[] OBJECT_HEADERS = { "content-type", "content-encoding", "content-disposition",
+         "content-language", "cache-control", "expires", "x-object-manifest", "x-delete-at" };
+
+   private static final ThreadLocal<SimpleDateFormat> RFC_1123 = new ThreadLocal<SimpleDateFormat>() {
+      @Override
+      protected SimpleDateFormat initialValue() {
+         return dateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'");
+      }
+   };
+   private static final ThreadLocal<SimpleDateFormat> ISO_8601 = new ThreadLocal<SimpleDateFormat>() {
+      @Override
+      protected SimpleDateFormat initialValue() {
+         return dateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'000'");
+      }
+   };
+
+   private final HttpServer server;
+   private final ExecutorService executor;
+   private final String endpoint;
+   private final ConcurrentMap<String, String> tokens = new ConcurrentHashMap<String, String>();
+   private final ConcurrentMap<String, Account> accounts = new ConcurrentHashMap<String, Account>();
+
+   /**
+    * The optional first argument (args[0]) is the port to listen on, the default is 8080
+    * The optional second argument (args[1]) is the number of threads serving requests, the default is 64
+    */
+   public static void main(String[] args) throws IOException {
+      int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+      int threads = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_THREADS;
+
+      LocalSwiftServer server = new LocalSwiftServer(port, threads);
+      server.start();
+
+      System.out.println("Local Swift Server");
+      System.out.println("  Listening on " + server.getEndpoint());
+      System.out.println("  Use .endpoint(\"" + server.getEndpoint() + "\") in the ContextBuilder of an example");
+   }
+
+   /**
+    * @param port the port to listen on, or 0 for any free port
+    */
+   public LocalSwiftServer(int port, int threads) throws IOException {
+      server = HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+      executor = Executors.newFixedThreadPool(threads);
+      endpoint = "http://localhost:" + server.getAddress().getPort();
+
+      server.setExecutor(executor);
+      server.createContext("/", new HttpHandler() {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            try {
+               dispatch(exchange);
+            }
+            catch (RuntimeException e) {
+               send(exchange, 500, "text/plain", String.valueOf(e).getBytes(UTF_8));
+            }
+            finally {
+               exchange.close();
+            }
+         }
+      });
+   }
+
+   public void start() {
+      server.start();
+   }
+
+   /**
+    * @return the URL to use as the endpoint of the cloudfiles-us provider
+    */
+   public String getEndpoint() {
+      return endpoint;
+   }
+
+   @Override
+   public void close() {
+      server.stop(0);
+      executor.shutdownNow();
+   }
+
+   private void dispatch(HttpExchange exchange) throws IOException {
+      String path = exchange.getRequestURI().getPath();
+
+      if (path.startsWith("/v1/")) {
+         storage(exchange, path.substring("/v1/".length()));
+      }
+      else if (path.startsWith("/cdn/")) {
+         cdnManagement(exchange, path.substring("/cdn/".length()));
+      }
+      else if (path.startsWith("/cdn-public/")) {
+         cdnPublic(exchange, path.substring("/cdn-public/".length()));
+      }
+      else if (path.endsWith("/v1.0") || path.endsWith("/v1.0/")) {
+         authV10(exchange);
+      }
+      else if (path.endsWith("/v1.1/auth") || path.endsWith("/v2.0/tokens")) {
+         authJson(exchange, path.endsWith("/v2.0/tokens"));
+      }
+      else {
+         send(exchange, 404);
+      }
+   }
+
+   // Authentication
+
+   private void authV10(HttpExchange exchange) throws IOException {
+      String username = exchange.getRequestHeaders().getFirst("X-Auth-User");
+
+      if (username == null || exchange.getRequestHeaders().getFirst("X-Auth-Key") == null) {
+         send(exchange, 401);
+         return;
+      }
+
+      String account = login(username);
+      Headers headers = exchange.getResponseHeaders();
+      headers.set("X-Auth-Token", tokenFor(account));
+      headers.set("X-Storage-Url", endpoint + "/v1/" + account);
+      headers.set("X-CDN-Management-Url", endpoint + "/cdn/" + account);
+      headers.set("X-Server-Management-Url", endpoint + "/servers/" + account);
+      send(exchange, 204);
+   }
+
+   private void authJson(HttpExchange exchange, boolean v20) throws IOException {
+      Matcher matcher = JSON_USERNAME.matcher(new String(readBody(exchange), UTF_8));
+
+      if (!matcher.find()) {
+         send(exchange, 401);
+         return;
+      }
+
+      String account = login(matcher.group(1));
+      String token = tokenFor(account);
+      String storageUrl = endpoint + "/v1/" + account;
+      String cdnUrl = endpoint + "/cdn/" + account;
+      String expires = "2099-01-01T00:00:00.000Z";
+      String json;
+
+      if (v20) {
+         json = "{\"access\": {\"token\": {\"id\": \"" + token + "\", \"expires\": \"" + expires + "\", "
+               + "\"tenant\": {\"id\": \"" + account + "\", \"name\": \"" + account + "\"}}, "
+               + "\"serviceCatalog\": ["
+               + "{\"name\": \"cloudFiles\", \"type\": \"object-store\", \"endpoints\": [{\"region\": \""
+               + Constants.ZONE + "\", \"tenantId\": \"" + account + "\", \"publicURL\": \"" + storageUrl
+               + "\", \"internalURL\": \"" + storageUrl + "\"}]}, "
+               + "{\"name\": \"cloudFilesCDN\", \"type\": \"rax:object-cdn\", \"endpoints\": [{\"region\": \""
+               + Constants.ZONE + "\", \"tenantId\": \"" + account + "\", \"publicURL\": \"" + cdnUrl + "\"}]}], "
+               + "\"user\": {\"id\": \"" + account + "\", \"name\": \"" + account + "\", \"roles\": []}}}";
+      }
+      else {
+         json = "{\"auth\": {\"token\": {\"id\": \"" + token + "\", \"expires\": \"" + expires + "\"}, "
+               + "\"serviceCatalog\": {"
+               + "\"cloudFiles\": [{\"region\": \"" + Constants.ZONE + "\", \"v1Default\": true, \"publicURL\": \""
+               + storageUrl + "\", \"internalURL\": \"" + storageUrl + "\"}], "
+               + "\"cloudFilesCDN\": [{\"region\": \"" + Constants.ZONE + "\", \"v1Default\": true, "
+               + "\"publicURL\": \"" + cdnUrl + "\"}]}}}";
+      }
+
+      send(exchange, 200, "application/json", json.getBytes(UTF_8));
+   }
+
+   private String login(String username) {
+      String account = "AUTH_" + username.replaceAll("[^A-Za-z0-9_.-]", "_");
+      accounts.putIfAbsent(account, new Account());
+      return account;
+   }
+
+   private String tokenFor(String account) {
+      String token = UUID.randomUUID().toString();
+      tokens.put(token, account);
+      return token;
+   }
+
+   private boolean authorized(HttpExchange exchange, String account) {
+      String token = exchange.getRequestHeaders().getFirst("X-Auth-Token");
+      return token != null && account.equals(tokens.get(token));
+   }
+
+   // Storage
+
+   private void storage(HttpExchange exchange, String path) throws IOException {
+      String[] parts = path.split("/", 3);
+      String accountName = parts[0];
+      String containerName = parts.length > 1 && !parts[1].isEmpty() ? parts[1] : null;
+      String objectName = parts.length > 2 && !parts[2].isEmpty() ? parts[2] : null;
+      Account account = accounts.get(accountName);
+      Map<String, String> query = query(exchange);
+
+      if (account == null) {
+         send(exchange, 401);
+         return;
+      }
+
+      if (!authorized(exchange, accountName)) {
+         if (objectName == null || !validTempUrl(exchange, account, "/v1/" + path, query)) {
+            send(exchange, 401);
+            return;
+         }
+      }
+
+      if (containerName == null) {
+         account(exchange, account, query);
+      }
+      else if (objectName == null) {
+         container(exchange, account, containerName, query);
+      }
+      else {
+         object(exchange, account, containerName, objectName);
+      }
+   }
+
+   private void account(HttpExchange exchange, Account account, Map<String, String> query) throws IOException {
+      String method = exchange.getRequestMethod();
+
+      if (method.equals("GET")) {
+         StringBuilder json = new StringBuilder("[");
+         StringBuilder plain = new StringBuilder();
+         int count = 0;
+
+         for (Map.Entry<String, Container> entry: listFrom(account.containers, query).entrySet()) {
+            if (!inListing(entry.getKey(), query) || count == limit(query)) {
+               break;
+            }
+
+            Container container = entry.getValue();
+            json.append(count == 0 ? "" : ", ").append("{\"name\": \"").append(jsonEscape(entry.getKey()))
+                  .append("\", \"count\": ").append(container.count)
+                  .append(", \"bytes\": ").append(container.bytes).append("}");
+            plain.append(entry.getKey()).append('\n');
+            count++;
+         }
+
+         sendListing(exchange, query, json.append("]"), plain, count);
+      }
+      else if (method.equals("HEAD")) {
+         long objects = 0;
+         long bytes = 0;
+
+         for (Container container: account.containers.values()) {
+            synchronized (container) {
+               objects += container.count;
+               bytes += container.bytes;
+            }
+         }
+
+         Headers headers = exchange.getResponseHeaders();
+         headers.set("X-Account-Container-Count", String.valueOf(account.containers.size()));
+         headers.set("X-Account-Object-Count", String.valueOf(objects));
+         headers.set("X-Account-Bytes-Used", String.valueOf(bytes));
+         for (Map.Entry<String, String> meta: account.metadata.entrySet()) {
+            headers.set("X-Account-Meta-" + meta.getKey(), meta.getValue());
+         }
+         send(exchange, 204);
+      }
+      else if (method.equals("POST")) {
+         updateMetadata(exchange.getRequestHeaders(), "x-account-meta-", "x-remove-account-meta-", account.metadata);
+         send(exchange, 204);
+      }
+      else {
+         send(exchange, 405);
+      }
+   }
+
+   private void container(HttpExchange exchange, Account account, String name, Map<String, String> query)
+         throws IOException {
+      String method = exchange.getRequestMethod();
+      Container container = account.containers.get(name);
+
+      if (method.equals("PUT") && query.containsKey("extract-archive")) {
+         extractArchive(exchange, account, name);
+      }
+      else if (method.equals("PUT")) {
+         boolean created = account.containers.putIfAbsent(name, new Container()) == null;
+         updateMetadata(exchange.getRequestHeaders(), "x-container-meta-", "x-remove-container-meta-",
+               account.containers.get(name).metadata);
+         send(exchange, created ? 201 : 202);
+      }
+      else if (container == null) {
+         send(exchange, 404);
+      }
+      else if (method.equals("GET")) {
+         listObjects(exchange, container, query);
+      }
+      else if (method.equals("HEAD")) {
+         Headers headers = exchange.getResponseHeaders();
+         synchronized (container) {
+            headers.set("X-Container-Object-Count", String.valueOf(container.count));
+            headers.set("X-Container-Bytes-Used", String.valueOf(container.bytes));
+         }
+         for (Map.Entry<String, String> meta: container.metadata.entrySet()) {
+            headers.set("X-Container-Meta-" + meta.getKey(), meta.getValue());
+         }
+         send(exchange, 204);
+      }
+      else if (method.equals("POST")) {
+         updateMetadata(exchange.getRequestHeaders(), "x-container-meta-", "x-remove-container-meta-",
+               container.metadata);
+         send(exchange, 204);
+      }
+      else if (method.equals("DELETE")) {
+         synchronized (container) {
+            if (container.count > 0) {
+               send(exchange, 409);
+               return;
+            }
+            account.containers.remove(name, container);
+         }
+         send(exchange, 204);
+      }
+      else {
+         send(exchange, 405);
+      }
+   }
+
+   private void listObjects(HttpExchange exchange, Container container, Map<String, String> query)
+         throws IOException {
+      String prefix = query.containsKey("prefix") ? query.get("prefix") : "";
+      String delimiter = query.get("delimiter");
+
+      // path=a/b is prefix=a/b/ with a / delimiter
+      if (query.containsKey("path")) {
+         String path = query.get("path");
+         prefix = path.isEmpty() || path.endsWith("/") ? path : path + "/";
+         delimiter = "/";
+      }
+
+      StringBuilder json = new StringBuilder("[");
+      StringBuilder plain = new StringBuilder();
+      String lastSubdir = null;
+      int count = 0;
+      int limit = limit(query);
+
+      for (Map.Entry<String, StoredObject> entry: listFrom(container.objects, query).entrySet()) {
+         String name = entry.getKey();
+
+         if (!inListing(name, query) || count == limit) {
+            break;
+         }
+
+         if (delimiter != null) {
+            int index = name.indexOf(delimiter, prefix.length());
+
+            if (index >= 0) {
+               String subdir = name.substring(0, index + delimiter.length());
+
+               if (!subdir.equals(lastSubdir)) {
+                  json.append(count == 0 ? "" : ", ").append("{\"subdir\": \"").append(jsonEscape(subdir))
+                        .append("\"}");
+                  plain.append(subdir).append('\n');
+                  lastSubdir = subdir;
+                  count++;
+               }
+               continue;
+            }
+         }
+
+         StoredObject object = entry.getValue();
+         json.append(count == 0 ? "" : ", ").append("{\"name\": \"").append(jsonEscape(name))
+               .append("\", \"hash\": \"").append(object.etag)
+               .append("\", \"bytes\": ").append(object.data.length)
+               .append(", \"content_type\": \"").append(jsonEscape(object.contentType()))
+               .append("\", \"last_modified\": \"").append(ISO_8601.get().format(new Date(object.lastModified)))
+               .append("\"}");
+         plain.append(name).append('\n');
+         count++;
+      }
+
+      sendListing(exchange, query, json.append("]"), plain, count);
+   }
+
+   private void object(HttpExchange exchange, Account account, String containerName, String name)
+         throws IOException {
+      String method = exchange.getRequestMethod();
+      Container container = account.containers.get(containerName);
+
+      if (container == null) {
+         send(exchange, 404);
+         return;
+      }
+
+      StoredObject object = container.objects.get(name);
+
+      if (method.equals("PUT")) {
+         putObject(exchange, account, container, name);
+      }
+      else if (object == null) {
+         send(exchange, 404);
+      }
+      else if (method.equals("GET") || method.equals("HEAD")) {
+         getObject(exchange, account, object);
+      }
+      else if (method.equals("POST")) {
+         Map<String, String> headers = new ConcurrentSkipListMap<String, String>();
+         for (Map.Entry<String, String> header: object.headers.entrySet()) {
+            if (!header.getKey().startsWith(OBJECT_META)) {
+               headers.put(header.getKey(), header.getValue());
+            }
+         }
+         copyObjectHeaders(exchange.getRequestHeaders(), headers);
+         container.put(name, new StoredObject(object.data, object.etag, headers));
+         send(exchange, 202);
+      }
+      else if (method.equals("DELETE")) {
+         container.remove(name);
+         send(exchange, 204);
+      }
+      else {
+         send(exchange, 405);
+      }
+   }
+
+   private void putObject(HttpExchange exchange, Account account, Container container, String name)
+         throws IOException {
+      Headers requestHeaders = exchange.getRequestHeaders();
+      String copyFrom = requestHeaders.getFirst("X-Copy-From");
+      byte[] data = readBody(exchange);
+      Map<String, String> headers = new ConcurrentSkipListMap<String, String>();
+
+      if (copyFrom != null) {
+         String[] source = decode(copyFrom.replaceFirst("^/", "")).split("/", 2);
+         Container sourceContainer = source.length == 2 ? account.containers.get(source[0]) : null;
+         StoredObject sourceObject = sourceContainer == null ? null : sourceContainer.objects.get(source[1]);
+
+         if (sourceObject == null) {
+            send(exchange, 404);
+            return;
+         }
+
+         data = sourceObject.data;
+         headers.putAll(sourceObject.headers);
+      }
+
+      copyObjectHeaders(requestHeaders, headers);
+      if (!headers.containsKey("content-type")) {
+         headers.put("content-type", DEFAULT_CONTENT_TYPE);
+      }
+
+      String etag = md5Hex(data);
+      String expected = requestHeaders.getFirst("ETag");
+
+      if (expected != null && !expected.replace("\"", "").equalsIgnoreCase(etag)) {
+         send(exchange, 422);
+         return;
+      }
+
+      container.put(name, new StoredObject(data, etag, headers));
+      exchange.getResponseHeaders().set("ETag", etag);
+      send(exchange, 201);
+   }
+
+   private void getObject(HttpExchange exchange, Account account, StoredObject object) throws IOException {
+      Headers headers = exchange.getResponseHeaders();
+      for (Map.Entry<String, String> header: object.headers.entrySet()) {
+         headers.set(header.getKey(), header.getValue());
+      }
+      headers.set("Last-Modified", RFC_1123.get().format(new Date(object.lastModified)));
+      headers.set("X-Timestamp", String.format(Locale.ENGLISH, "%.5f", object.lastModified / 1000.0));
+      headers.set("Accept-Ranges", "bytes");
+
+      String manifest = object.headers.get("x-object-manifest");
+      if (manifest != null) {
+         getManifest(exchange, account, manifest);
+         return;
+      }
+
+      headers.set("ETag", object.etag);
+      sendRange(exchange, object.data);
+   }
+
+   /**
+    * A dynamic large object is the concatenation of every object whose name starts with the manifest's prefix, in
+    * name order. The ETag is the MD5 of the segments' ETags, quoted the way Swift does.
+    */
+   private void getManifest(HttpExchange exchange, Account account, String manifest) throws IOException {
+      String[] target = decode(manifest).split("/", 2);
+      Container segments = account.containers.get(target[0]);
+      String prefix = target.length > 1 ? target[1] : "";
+      ByteArrayOutputStream data = new ByteArrayOutputStream();
+      StringBuilder etags = new StringBuilder();
+
+      if (segments != null) {
+         for (Map.Entry<String, StoredObject> segment: segments.objects.tailMap(prefix, true).entrySet()) {
+            if (!segment.getKey().startsWith(prefix)) {
+               break;
+            }
+            data.write(segment.getValue().data);
+            etags.append(segment.getValue().etag);
+         }
+      }
+
+      exchange.getResponseHeaders().set("ETag", "\"" + md5Hex(etags.toString().getBytes(UTF_8)) + "\"");
+      sendRange(exchange, data.toByteArray());
+   }
+
+   private void sendRange(HttpExchange exchange, byte[] data) throws IOException {
+      String range = exchange.getRequestHeaders().getFirst("Range");
+      Matcher matcher = range == null ? null : RANGE.matcher(range.trim());
+
+      if (matcher == null || !matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+         send(exchange, 200, null, data, 0, data.length);
+         return;
+      }
+
+      long start;
+      long end;
+
+      if (matcher.group(1).isEmpty()) {
+         // bytes=-n is the last n bytes
+         start = Math.max(0, data.length - Long.parseLong(matcher.group(2)));
+         end = data.length - 1;
+      }
+      else {
+         start = Long.parseLong(matcher.group(1));
+         end = matcher.group(2).isEmpty() ? data.length - 1 : Math.min(Long.parseLong(matcher.group(2)),
+               data.length - 1);
+      }
+
+      if (start >= data.length || start > end) {
+         exchange.getResponseHeaders().set("Content-Range", "bytes */" + data.length);
+         send(exchange, 416);
+         return;
+      }
+
+      exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+      send(exchange, 206, null, data, (int) start, (int) (end - start + 1));
+   }
+
+   /**
+    * Unpacks a ustar archive into one object per regular file. Entries of any other type are skipped.
+    */
+   private void extractArchive(HttpExchange exchange, Account account, String containerName) throws IOException {
+      byte[] archive = readBody(exchange);
+      account.containers.putIfAbsent(containerName, new Container());
+      Container container = account.containers.get(containerName);
+      int created = 0;
+      int offset = 0;
+
+      while (offset + 512 <= archive.length && archive[offset] != 0) {
+         String name = tarString(archive, offset, 100);
+         String prefix = tarString(archive, offset + 345, 155);
+         int size = Integer.parseInt(tarString(archive, offset + 124, 12).trim(), 8);
+         byte type = archive[offset + 156];
+         offset += 512;
+
+         if ((type == '0' || type == 0) && offset + size <= archive.length) {
+            byte[] data = new byte[size];
+            System.arraycopy(archive, offset, data, 0, size);
+
+            Map<String, String> headers = new ConcurrentSkipListMap<String, String>();
+            headers.put("content-type", DEFAULT_CONTENT_TYPE);
+            container.put(prefix.isEmpty() ? name : prefix + "/" + name, new StoredObject(data, md5Hex(data),
+                  headers));
+            created++;
+         }
+
+         offset += (size + 511) / 512 * 512;
+      }
+
+      String json = "{\"Number Files Created\": " + created + ", \"Response Status\": \"201 Created\", "
+            + "\"Response Body\": \"\", \"Errors\": []}";
+      send(exchange, 200, "application/json", json.getBytes(UTF_8));
+   }
+
+   private boolean validTempUrl(HttpExchange exchange, Account account, String path, Map<String, String> query) {
+      String signature = query.get("temp_url_sig");
+      String expires = query.get("temp_url_expires");
+      String key = account.metadata.get("temp-url-key");
+
+      if (signature == null || expires == null || key == null) {
+         return false;
+      }
+
+      try {
+         if (Long.parseLong(expires) < TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis())) {
+            return false;
+         }
+      }
+      catch (NumberFormatException e) {
+         return false;
+      }
+
+      // A URL signed for GET is good for HEAD too
+      String method = exchange.getRequestMethod();
+      String[] methods = method.equals("HEAD") ? new String[] { "HEAD", "GET" } : new String[] { method };
+
+      for (String signed: methods) {
+         if (hmacSha1Hex(key, signed + "\n" + expires + "\n" + path).equalsIgnoreCase(signature)) {
+            return true;
+         }
+      }
+
+      return false;
+   }
+
+   // CDN
+
+   private void cdnManagement(HttpExchange exchange, String path) throws IOException {
+      String[] parts = path.split("/", 2);
+      Account account = accounts.get(parts[0]);
+
+      if (account == null || !authorized(exchange, parts[0])) {
+         send(exchange, 401);
+         return;
+      }
+
+      String method = exchange.getRequestMethod();
+
+      if (parts.length < 2 || parts[1].isEmpty()) {
+         StringBuilder json = new StringBuilder("[");
+         StringBuilder plain = new StringBuilder();
+         int count = 0;
+
+         for (Map.Entry<String, Container> entry: account.containers.entrySet()) {
+            Container container = entry.getValue();
+            if (container.cdnEnabled) {
+               json.append(count == 0 ? "" : ", ").append("{\"name\": \"").append(jsonEscape(entry.getKey()))
+                     .append("\", \"cdn_enabled\": true, \"ttl\": ").append(container.cdnTtl)
+                     .append(", \"log_retention\": false, \"cdn_uri\": \"")
+                     .append(cdnUri(parts[0], entry.getKey())).append("\"}");
+               plain.append(entry.getKey()).append('\n');
+               count++;
+            }
+         }
+
+         sendListing(exchange, query(exchange), json.append("]"), plain, count);
+         return;
+      }
+
+      String name = parts[1];
+      Container container = account.containers.get(name);
+
+      if (container == null) {
+         send(exchange, 404);
+         return;
+      }
+
+      Headers requestHeaders = exchange.getRequestHeaders();
+
+      if (method.equals("PUT") || method.equals("POST")) {
+         String enabled = requestHeaders.getFirst("X-CDN-Enabled");
+         String ttl = requestHeaders.getFirst("X-TTL");
+
+         container.cdnEnabled = method.equals("PUT") ? !"false".equalsIgnoreCase(enabled)
+               : enabled == null ? container.cdnEnabled : Boolean.parseBoolean(enabled);
+         if (ttl != null) {
+            container.cdnTtl = Long.parseLong(ttl);
+         }
+      }
+      else if (!method.equals("HEAD")) {
+         send(exchange, 405);
+         return;
+      }
+
+      Headers headers = exchange.getResponseHeaders();
+      String uri = cdnUri(parts[0], name);
+      headers.set("X-CDN-Enabled", container.cdnEnabled ? "True" : "False");
+      headers.set("X-TTL", String.valueOf(container.cdnTtl));
+      headers.set("X-Log-Retention", "False");
+      headers.set("X-CDN-URI", uri);
+      headers.set("X-CDN-SSL-URI", uri);
+      headers.set("X-CDN-Streaming-URI", uri);
+      headers.set("X-CDN-iOS-URI", uri);
+      send(exchange, method.equals("PUT") ? 201 : method.equals("POST") ? 202 : 204);
+   }
+
+   private void cdnPublic(HttpExchange exchange, String path) throws IOException {
+      String[] parts = path.split("/", 3);
+      Account account = accounts.get(parts[0]);
+      Container container = account == null || parts.length < 3 ? null : account.containers.get(parts[1]);
+      StoredObject object = container == null || !container.cdnEnabled ? null : container.objects.get(parts[2]);
+      String method = exchange.getRequestMethod();
+
+      if (object == null) {
+         send(exchange, 404);
+      }
+      else if (!method.equals("GET") && !method.equals("HEAD")) {
+         send(exchange, 405);
+      }
+      else {
+         if (!object.headers.containsKey("cache-control")) {
+            exchange.getResponseHeaders().set("Cache-Control", "public, max-age=" + container.cdnTtl);
+         }
+         getObject(exchange, account, object);
+      }
+   }
+
+   private String cdnUri(String account, String container) {
+      return endpoint + "/cdn-public/" + account + "/" + container;
+   }
+
+   // Helpers
+
+   private static void copyObjectHeaders(Headers from, Map<String, String> to) {
+      for (Map.Entry<String, List<String>> header: from.entrySet()) {
+         String name = header.getKey().toLowerCase(Locale.ENGLISH);
+
+         if (name.startsWith(OBJECT_META)) {
+            to.put(name, header.getValue().get(0));
+         }
+         else {
+            for (String objectHeader: OBJECT_HEADERS) {
+               if (objectHeader.equals(name)) {
+                  to.put(name, header.getValue().get(0));
+               }
+            }
+         }
+      }
+   }
+
+   private static void updateMetadata(Headers from, String prefix, String removePrefix, Map<String, String> to) {
+      for (Map.Entry<String, List<String>> header: from.entrySet()) {
+         String name = header.getKey().toLowerCase(Locale.ENGLISH);
+
+         if (name.startsWith(prefix)) {
+            String value = header.getValue().get(0);
+            if (value.isEmpty()) {
+               to.remove(name.substring(prefix.length()));
+            }
+            else {
+               to.put(name.substring(prefix.length()), value);
+            }
+         }
+         else if (name.startsWith(removePrefix)) {
+            to.remove(name.substring(removePrefix.length()));
+         }
+      }
+   }
+
+   /**
+    * @return the entries after the marker, or from the prefix when that comes later
+    */
+   private static <V> NavigableMap<String, V> listFrom(ConcurrentSkipListMap<String, V> map,
+         Map<String, String> query) {
+      String marker = query.get("marker");
+      String prefix = query.get("prefix");
+
+      if (prefix != null && (marker == null || prefix.compareTo(marker) > 0)) {
+         return map.tailMap(prefix, true);
+      }
+
+      return marker == null ? map : map.tailMap(marker, false);
+   }
+
+   /**
+    * @return false once name is past the prefix or the end marker, which ends the listing since names are sorted
+    */
+   private static boolean inListing(String name, Map<String, String> query) {
+      String prefix = query.get("prefix");
+      String endMarker = query.get("end_marker");
+
+      return (prefix == null || name.startsWith(prefix)) && (endMarker == null || name.compareTo(endMarker) < 0);
+   }
+
+   private static int limit(Map<String, String> query) {
+      return query.containsKey("limit") ? Math.min(Integer.parseInt(query.get("limit")), MAX_LISTING) : MAX_LISTING;
+   }
+
+   private static void sendListing(HttpExchange exchange, Map<String, String> query, StringBuilder json,
+         StringBuilder plain, int count) throws IOException {
+      String accept = exchange.getRequestHeaders().getFirst("Accept");
+
+      if ("json".equals(query.get("format")) || (accept != null && accept.contains("application/json"))) {
+         send(exchange, 200, "application/json; charset=utf-8", json.toString().getBytes(UTF_8));
+      }
+      else if (count == 0) {
+         send(exchange, 204);
+      }
+      else {
+         send(exchange, 200, "text/plain; charset=utf-8", plain.toString().getBytes(UTF_8));
+      }
+   }
+
+   private static Map<String, String> query(HttpExchange exchange) {
+      Map<String, String> query = new ConcurrentHashMap<String, String>();
+      String raw = exchange.getRequestURI().getRawQuery();
+
+      if (raw != null) {
+         for (String parameter: raw.split("&")) {
+            int equals = parameter.indexOf('=');
+            String name = decode(equals < 0 ? parameter : parameter.substring(0, equals));
+            String value = equals < 0 ? "" : decode(parameter.substring(equals + 1));
+
+            if (!name.isEmpty()) {
+               query.put(name, value);
+            }
+         }
+      }
+
+      return query;
+   }
+
+   private static byte[] readBody(HttpExchange exchange) throws IOException {
+      String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+      ByteArrayOutputStream body = new ByteArrayOutputStream(contentLength == null ? 8192
+            : (int) Math.min(Long.parseLong(contentLength), Integer.MAX_VALUE));
+      InputStream in = exchange.getRequestBody();
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+
+      while ((read = in.read(buffer)) != -1) {
+         body.write(buffer, 0, read);
+      }
+
+      return body.toByteArray();
+   }
+
+   private static void send(HttpExchange exchange, int status) throws IOException {
+      exchange.sendResponseHeaders(status, -1);
+   }
+
+   private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+      send(exchange, status, contentType, body, 0, body.length);
+   }
+
+   /**
+    * The body of a HEAD response is dropped but its Content-Length is still sent.
+    */
+   private static void send(HttpExchange exchange, int status, String contentType, byte[] body, int offset,
+         int length) throws IOException {
+      Headers headers = exchange.getResponseHeaders();
+
+      if (contentType != null) {
+         headers.set("Content-Type", contentType);
+      }
+
+      if (exchange.getRequestMethod().equals("HEAD")) {
+         headers.set("Content-Length", String.valueOf(length));
+         exchange.sendResponseHeaders(status, -1);
+         return;
+      }
+
+      exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(body, offset, length);
+      out.flush();
+   }
+
+   private static String tarString(byte[] archive, int offset, int length) {
+      int end = offset;
+      while (end < offset + length && archive[end] != 0) {
+         end++;
+      }
+      return new String(archive, offset, end - offset, UTF_8);
+   }
+
+   private static String md5Hex(byte[] data) {
+      try {
+         return base16().lowerCase().encode(MessageDigest.getInstance("MD5").digest(data));
+      }
+      catch (GeneralSecurityException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   private static String hmacSha1Hex(String key, String body) {
+      try {
+         Mac mac = Mac.getInstance(HMAC_SHA1);
+         mac.init(new SecretKeySpec(key.getBytes(UTF_8), HMAC_SHA1));
+         return base16().lowerCase().encode(mac.doFinal(body.getBytes(UTF_8)));
+      }
+      catch (GeneralSecurityException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   private static String decode(String value) {
+      try {
+         return URLDecoder.decode(value.replace("+", "%2B"), "UTF-8");
+      }
+      catch (UnsupportedEncodingException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   private static String jsonEscape(String value) {
+      StringBuilder escaped = new StringBuilder(value.length());
+
+      for (char c: value.toCharArray()) {
+         if (c == '"' || c == '\\') {
+            escaped.append('\\').append(c);
+         }
+         else if (c < 0x20) {
+            escaped.append(String.format("\\u%04x", (int) c));
+         }
+         else {
+            escaped.append(c);
+         }
+      }
+
+      return escaped.toString();
+   }
+
+   private static SimpleDateFormat dateFormat(String pattern) {
+      SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+      format.setTimeZone(TimeZone.getTimeZone("GMT"));
+      return format;
+   }
+
+   private static class Account {
+      private final ConcurrentSkipListMap<String, Container> containers =
+            new ConcurrentSkipListMap<String, Container>();
+      private final Map<String, String> metadata = new ConcurrentHashMap<String, String>();
+   }
+
+   /**
+    * Objects are kept sorted by name so a listing can start at its marker. The counters are updated together with
+    * the map so a HEAD never sees an object without its bytes.
+    */
+   private static class Container {
+      private final ConcurrentSkipListMap<String, StoredObject> objects =
+            new ConcurrentSkipListMap<String, StoredObject>();
+      private final Map<String, String> metadata = new ConcurrentHashMap<String, String>();
+      private volatile long count;
+      private volatile long bytes;
+      private volatile boolean cdnEnabled;
+      private volatile long cdnTtl = 259200;
+
+      synchronized void put(String name, StoredObject object) {
+         StoredObject previous = objects.put(name, object);
+
+         if (previous == null) {
+            count++;
+         }
+         else {
+            bytes -= previous.data.length;
+         }
+         bytes += object.data.length;
+      }
+
+      synchronized void remove(String name) {
+         StoredObject previous = objects.remove(name);
+
+         if (previous != null) {
+            count--;
+            bytes -= previous.data.length;
+         }
+      }
+   }
+
+   private static class StoredObject {
+      private final byte[] data;
+      private final String etag;
+      private final Map<String, String> headers;
+      private final long lastModified = System.currentTimeMillis();
+
+      StoredObject(byte[] data, String etag, Map<String, String> headers) {
+         this.data = data;
+         this.etag = etag;
+         this.headers = headers;
+      }
+
+      String contentType() {
+         return headers.containsKey("content-type") ? headers.get("content-type") : DEFAULT_CONTENT_TYPE;
+      }
+   }
+}
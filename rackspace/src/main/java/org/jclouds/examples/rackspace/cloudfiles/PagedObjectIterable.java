@@ -0,0 +1,132 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudfiles;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.openstack.swift.CommonSwiftAsyncClient;
+import org.jclouds.openstack.swift.CommonSwiftClient;
+import org.jclouds.openstack.swift.domain.ObjectInfo;
+import org.jclouds.openstack.swift.options.ListContainerOptions;
+import org.jclouds.rest.RestContext;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Lists every object in a container one page at a time.
+ *
+ * As soon as a page arrives the request for the next page is sent through the async Swift API, so the next page
+ * is on its way while the caller works through the current one. At most two pages are held in memory, whatever the
+ * size of the container, and the first objects are available after a single round trip.
+ */
+public class PagedObjectIterable implements Iterable<ObjectInfo> {
+   // 10000 is the largest page Cloud Files will return
+   public static final int DEFAULT_PAGE_SIZE = 10000;
+
+   private final RestContext<CommonSwiftClient, CommonSwiftAsyncClient> swift;
+   private final String container;
+   private final String prefix;
+   private final int pageSize;
+
+   public PagedObjectIterable(RestContext<CommonSwiftClient, CommonSwiftAsyncClient> swift, String container) {
+      this(swift, container, null, DEFAULT_PAGE_SIZE);
+   }
+
+   /**
+    * @param prefix only list objects whose names start with prefix, or null for all objects
+    */
+   public PagedObjectIterable(RestContext<CommonSwiftClient, CommonSwiftAsyncClient> swift, String container,
+         String prefix, int pageSize) {
+      checkArgument(pageSize > 0 && pageSize <= DEFAULT_PAGE_SIZE, "pageSize must be between 1 and %s",
+            DEFAULT_PAGE_SIZE);
+      this.swift = checkNotNull(swift, "swift");
+      this.container = checkNotNull(container, "container");
+      this.prefix = prefix;
+      this.pageSize = pageSize;
+   }
+
+   @Override
+   public Iterator<ObjectInfo> iterator() {
+      return new AbstractIterator<ObjectInfo>() {
+         private ListenableFuture<PageSet<ObjectInfo>> nextPage = listObjects(null);
+         private Iterator<ObjectInfo> current;
+
+         @Override
+         protected ObjectInfo computeNext() {
+            while (current == null || !current.hasNext()) {
+               if (nextPage == null) {
+                  return endOfData();
+               }
+
+               PageSet<ObjectInfo> page = getUnchecked(nextPage);
+               String marker = lastName(page);
+
+               // A short page is the last page, otherwise prefetch the next one before handing this one out
+               nextPage = page.size() < pageSize || marker == null ? null : listObjects(marker);
+               current = page.iterator();
+            }
+
+            return current.next();
+         }
+      };
+   }
+
+   private ListenableFuture<PageSet<ObjectInfo>> listObjects(String marker) {
+      ListContainerOptions options = ListContainerOptions.Builder.maxResults(pageSize);
+
+      if (prefix != null) {
+         options.withPrefix(prefix);
+      }
+      if (marker != null) {
+         options.afterMarker(marker);
+      }
+
+      return swift.getAsyncApi().listObjects(container, options);
+   }
+
+   private static String lastName(PageSet<ObjectInfo> page) {
+      String last = null;
+
+      for (ObjectInfo objectInfo: page) {
+         last = objectInfo.getName();
+      }
+
+      return last;
+   }
+
+   private static <T> T getUnchecked(ListenableFuture<T> future) {
+      try {
+         return future.get();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw Throwables.propagate(e);
+      }
+      catch (ExecutionException e) {
+         throw Throwables.propagate(e.getCause());
+      }
+   }
+}
@@ -0,0 +1,233 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudfiles;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.io.Closeables.closeQuietly;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jclouds.http.HttpRequest;
+import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpResponseException;
+import org.jclouds.rest.HttpClient;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Downloads the object behind a signed GET request (such as a Temp URL) straight to a file.
+ *
+ * The payload is copied in fixed size chunks, so memory use is the same for a 1 KB object as for a 5 GB one, and
+ * binary objects are written byte for byte. The object can also be fetched as several ranged GETs in parallel, each
+ * writing its own region of the file.
+ */
+public class SignedURLDownloader {
+   public static final int CHUNK_SIZE = 64 * 1024;
+   public static final long DEFAULT_RANGE_SIZE = 16 * 1024 * 1024;
+
+   private static final Pattern CONTENT_RANGE_TOTAL = Pattern.compile("bytes \\d+-\\d+/(\\d+)");
+
+   private final HttpClient http;
+
+   public SignedURLDownloader(HttpClient http) {
+      this.http = http;
+   }
+
+   /**
+    * Download with a single streaming GET.
+    *
+    * @return the number of bytes written
+    */
+   public long download(HttpRequest signedGet, File file) throws IOException {
+      HttpResponse response = invoke(signedGet);
+      FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+
+      try {
+         long length = write(response, channel, 0);
+         channel.truncate(length);
+         return length;
+      }
+      finally {
+         closeQuietly(channel);
+      }
+   }
+
+   /**
+    * Download with up to parallelRanges ranged GETs of rangeSize bytes in flight at once. The first range also tells
+    * us the size of the object, after which the remaining ranges are requested in parallel. An empty object has no
+    * first range, Swift answers 416 for it, and is written as an empty file.
+    *
+    * @return the number of bytes written
+    */
+   public long download(final HttpRequest signedGet, File file, int parallelRanges, final long rangeSize)
+         throws IOException, InterruptedException {
+      checkArgument(parallelRanges > 0, "parallelRanges must be positive");
+      checkArgument(rangeSize > 0, "rangeSize must be positive");
+
+      if (parallelRanges == 1) {
+         return download(signedGet, file);
+      }
+
+      final FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+      ListeningExecutorService executor =
+            MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(parallelRanges));
+
+      try {
+         HttpResponse first = http.invoke(range(signedGet, 0, rangeSize));
+
+         if (first.getStatusCode() == 416 && isEmpty(first)) {
+            channel.truncate(0);
+            return 0;
+         }
+
+         first = checkStatus(first);
+         long total = totalLength(first);
+         long written = write(first, channel, 0);
+
+         // The server ignored the Range header and sent the whole object
+         if (first.getStatusCode() != 206 || total <= written) {
+            channel.truncate(written);
+            return written;
+         }
+
+         List<ListenableFuture<Long>> ranges = Lists.newArrayList();
+
+         for (long offset = written; offset < total; offset += rangeSize) {
+            final long start = offset;
+            final long end = Math.min(offset + rangeSize, total);
+
+            ranges.add(executor.submit(new Callable<Long>() {
+               @Override
+               public Long call() throws IOException {
+                  return write(invoke(range(signedGet, start, end)), channel, start);
+               }
+            }));
+         }
+
+         for (Long length: Futures.allAsList(ranges).get()) {
+            written += length;
+         }
+
+         channel.truncate(total);
+         return written;
+      }
+      catch (ExecutionException e) {
+         Throwables.propagateIfPossible(e.getCause(), IOException.class);
+         throw Throwables.propagate(e.getCause());
+      }
+      finally {
+         executor.shutdownNow();
+         closeQuietly(channel);
+      }
+   }
+
+   /**
+    * Copies the payload to the channel starting at position, one chunk at a time. Positional writes let several
+    * ranges share the channel.
+    */
+   private static long write(HttpResponse response, FileChannel channel, long position) throws IOException {
+      if (response.getPayload() == null) {
+         return 0;
+      }
+
+      InputStream in = response.getPayload().getInput();
+      byte[] chunk = new byte[CHUNK_SIZE];
+      long written = 0;
+
+      try {
+         int read;
+         while ((read = in.read(chunk)) != -1) {
+            ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, read);
+            while (buffer.hasRemaining()) {
+               written += channel.write(buffer, position + written);
+            }
+         }
+      }
+      finally {
+         closeQuietly(in);
+      }
+
+      return written;
+   }
+
+   /**
+    * @param end exclusive
+    */
+   private static HttpRequest range(HttpRequest signedGet, long start, long end) {
+      return signedGet.toBuilder().replaceHeader("Range", "bytes=" + start + "-" + (end - 1)).build();
+   }
+
+   private static long totalLength(HttpResponse response) {
+      String contentRange = response.getFirstHeaderOrNull("Content-Range");
+
+      if (contentRange != null) {
+         Matcher matcher = CONTENT_RANGE_TOTAL.matcher(contentRange);
+         if (matcher.matches()) {
+            return Long.parseLong(matcher.group(1));
+         }
+      }
+
+      return -1;
+   }
+
+   /**
+    * @return true if the 416 response is for an empty object, as far as its Content-Range says
+    */
+   private static boolean isEmpty(HttpResponse rangeNotSatisfiable) {
+      if (rangeNotSatisfiable.getPayload() != null) {
+         rangeNotSatisfiable.getPayload().release();
+      }
+
+      String contentRange = rangeNotSatisfiable.getFirstHeaderOrNull("Content-Range");
+      return contentRange == null || contentRange.equals("bytes */0");
+   }
+
+   private HttpResponse invoke(HttpRequest request) {
+      return checkStatus(http.invoke(request));
+   }
+
+   private static HttpResponse checkStatus(HttpResponse response) {
+      int statusCode = response.getStatusCode();
+
+      if (statusCode < 200 || statusCode > 299) {
+         if (response.getPayload() != null) {
+            response.getPayload().release();
+         }
+         throw new HttpResponseException(null, response);
+      }
+
+      return response;
+   }
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudfiles;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Writes plain files into a POSIX ustar archive, the format accepted by the Cloud Files bulk extract operation.
+ * Only regular files are written; directories are implied by the names of the entries.
+ */
+class TarWriter implements Closeable {
+   private static final int BLOCK_SIZE = 512;
+   private static final int NAME_LENGTH = 100;
+   private static final int PREFIX_LENGTH = 155;
+
+   private final OutputStream out;
+
+   TarWriter(OutputStream out) {
+      this.out = out;
+   }
+
+   /**
+    * Appends file to the archive as name, a relative path with / separators.
+    */
+   void add(String name, File file) throws IOException {
+      out.write(header(name, file.length(), file.lastModified() / 1000));
+      Files.copy(file, out);
+      pad(file.length());
+   }
+
+   /**
+    * Writes the two empty blocks that end an archive and closes the underlying stream.
+    */
+   @Override
+   public void close() throws IOException {
+      try {
+         out.write(new byte[BLOCK_SIZE * 2]);
+         out.flush();
+      }
+      finally {
+         out.close();
+      }
+   }
+
+   private void pad(long length) throws IOException {
+      int remainder = (int) (length % BLOCK_SIZE);
+
+      if (remainder != 0) {
+         out.write(new byte[BLOCK_SIZE - remainder]);
+      }
+   }
+
+   static byte[] header(String name, long size, long mtimeSeconds) {
+      byte[] header = new byte[BLOCK_SIZE];
+      byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+
+      if (nameBytes.length <= NAME_LENGTH) {
+         put(header, 0, nameBytes, NAME_LENGTH);
+      }
+      else {
+         // Long names are split on a / into a prefix and a name
+         int split = name.lastIndexOf('/', PREFIX_LENGTH);
+         checkArgument(split > 0, "name too long for a tar entry: %s", name);
+         byte[] prefix = name.substring(0, split).getBytes(Charsets.UTF_8);
+         byte[] rest = name.substring(split + 1).getBytes(Charsets.UTF_8);
+         checkArgument(prefix.length <= PREFIX_LENGTH && rest.length <= NAME_LENGTH,
+               "name too long for a tar entry: %s", name);
+         put(header, 0, rest, NAME_LENGTH);
+         put(header, 345, prefix, PREFIX_LENGTH);
+      }
+
+      octal(header, 100, 0644, 8); // mode
+      octal(header, 108, 0, 8); // uid
+      octal(header, 116, 0, 8); // gid
+      octal(header, 124, size, 12);
+      octal(header, 136, mtimeSeconds, 12);
+      header[156] = '0'; // regular file
+      put(header, 257, "ustar".getBytes(Charsets.US_ASCII), 6);
+      header[263] = '0';
+      header[264] = '0';
+
+      // The checksum is computed with the checksum field itself filled with spaces
+      for (int i = 148; i < 156; i++) {
+         header[i] = ' ';
+      }
+
+      long checksum = 0;
+      for (byte b: header) {
+         checksum += b & 0xff;
+      }
+      octal(header, 148, checksum, 7);
+      header[155] = ' ';
+
+      return header;
+   }
+
+   private static void put(byte[] header, int offset, byte[] value, int length) {
+      System.arraycopy(value, 0, header, offset, Math.min(value.length, length));
+   }
+
+   /**
+    * Writes value as zero padded octal digits followed by a NUL, filling length bytes.
+    */
+   private static void octal(byte[] header, int offset, long value, int length) {
+      String digits = Long.toOctalString(value);
+      checkArgument(digits.length() < length, "value %s does not fit in a tar header field", value);
+
+      int padding = length - 1 - digits.length();
+      for (int i = 0; i < padding; i++) {
+         header[offset + i] = '0';
+      }
+      put(header, offset + padding, digits.getBytes(Charsets.US_ASCII), digits.length());
+      header[offset + length - 1] = 0;
+   }
+}
@@ -0,0 +1,204 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudfiles;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.io.BaseEncoding.base16;
+
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.http.HttpRequest;
+import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpResponseException;
+import org.jclouds.util.Strings2;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Signs Temp URLs in bulk without any network I/O per URL.
+ *
+ * Signing a Temp URL only needs the account's storage URL and its Temp URL key. Both are looked up once with a
+ * single HEAD on the account and cached; the cache is refreshed every refreshMinutes so a rotated key is picked
+ * up, and {@link #refresh()} forces a reload right after you rotate the key yourself. Everything else is an
+ * HMAC-SHA1 over the method, the expiry time and the path of the object.
+ */
+public class TempURLSigner {
+   private static final String TEMP_URL_KEY_HEADER = "X-Account-Meta-Temp-Url-Key";
+   private static final String HMAC_SHA1 = "HmacSHA1";
+
+   private final BlobStoreContext storageContext;
+   private final long refreshMinutes;
+   private volatile Supplier<SigningKey> signingKey;
+
+   public TempURLSigner(BlobStoreContext storageContext, long refreshMinutes) {
+      checkArgument(refreshMinutes > 0, "refreshMinutes must be positive");
+      this.storageContext = checkNotNull(storageContext, "storageContext");
+      this.refreshMinutes = refreshMinutes;
+      refresh();
+   }
+
+   /**
+    * Drops the cached storage URL and key; the next call to sign looks them up again.
+    */
+   public void refresh() {
+      signingKey = Suppliers.memoizeWithExpiration(new Supplier<SigningKey>() {
+         @Override
+         public SigningKey get() {
+            return loadSigningKey();
+         }
+      }, refreshMinutes, TimeUnit.MINUTES);
+   }
+
+   public URI sign(Request request) {
+      return sign(ImmutableList.of(request)).get(0);
+   }
+
+   /**
+    * @return the signed URLs, in the same order as the requests
+    */
+   public List<URI> sign(List<Request> requests) {
+      SigningKey key = signingKey.get();
+      Mac mac = key.newMac();
+      long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+      ImmutableList.Builder<URI> urls = ImmutableList.builder();
+
+      for (Request request: requests) {
+         long expires = now + request.getTtlSeconds();
+         // The signature covers the decoded path, the URL carries the encoded one
+         String path = key.accountPath + "/" + request.getContainer() + "/" + request.getObject();
+         String hmacBody = request.getMethod() + "\n" + expires + "\n" + path;
+         String signature = base16().lowerCase().encode(mac.doFinal(hmacBody.getBytes(Charsets.UTF_8)));
+
+         urls.add(URI.create(new StringBuilder(key.accountUrl)
+               .append('/').append(Strings2.urlEncode(request.getContainer(), '/'))
+               .append('/').append(Strings2.urlEncode(request.getObject(), '/'))
+               .append("?temp_url_sig=").append(signature)
+               .append("&temp_url_expires=").append(expires)
+               .toString()));
+      }
+
+      return urls.build();
+   }
+
+   /**
+    * jclouds signs requests with the current auth token and storage URL, so we borrow a signed request on a
+    * container to find the account and HEAD it for the Temp URL key.
+    */
+   private SigningKey loadSigningKey() {
+      HttpRequest signed = storageContext.getSigner().signRemoveBlob(Constants.CONTAINER, "temp-url-key");
+      String objectUrl = signed.getEndpoint().toString();
+      String containerUrl = objectUrl.substring(0, objectUrl.lastIndexOf('/'));
+      String accountUrl = containerUrl.substring(0, containerUrl.lastIndexOf('/'));
+
+      HttpRequest head = signed.toBuilder().method("HEAD").endpoint(URI.create(accountUrl)).build();
+      HttpResponse response = storageContext.utils().http().invoke(head);
+
+      if (response.getStatusCode() < 200 || response.getStatusCode() > 299) {
+         throw new HttpResponseException(null, response);
+      }
+
+      String key = response.getFirstHeaderOrNull(TEMP_URL_KEY_HEADER);
+      checkState(key != null, "%s is not set on the account, run the GenerateTempURL example first",
+            TEMP_URL_KEY_HEADER);
+
+      return new SigningKey(accountUrl, URI.create(accountUrl).getPath(), key);
+   }
+
+   private static class SigningKey {
+      private final String accountUrl;
+      private final String accountPath;
+      private final SecretKeySpec key;
+
+      SigningKey(String accountUrl, String accountPath, String key) {
+         this.accountUrl = accountUrl;
+         this.accountPath = accountPath;
+         this.key = new SecretKeySpec(key.getBytes(Charsets.UTF_8), HMAC_SHA1);
+      }
+
+      /**
+       * Mac instances are not thread safe, so each batch gets its own.
+       */
+      Mac newMac() {
+         try {
+            Mac mac = Mac.getInstance(HMAC_SHA1);
+            mac.init(key);
+            return mac;
+         }
+         catch (GeneralSecurityException e) {
+            throw Throwables.propagate(e);
+         }
+      }
+   }
+
+   /**
+    * A container, object, HTTP method and time to live to sign a Temp URL for.
+    */
+   public static class Request {
+      private final String container;
+      private final String object;
+      private final String method;
+      private final long ttlSeconds;
+
+      public static Request of(String container, String object, String method, long ttlSeconds) {
+         return new Request(container, object, method, ttlSeconds);
+      }
+
+      private Request(String container, String object, String method, long ttlSeconds) {
+         checkArgument(ttlSeconds > 0, "ttlSeconds must be positive");
+         this.container = checkNotNull(container, "container");
+         this.object = checkNotNull(object, "object");
+         this.method = checkNotNull(method, "method").toUpperCase();
+         this.ttlSeconds = ttlSeconds;
+      }
+
+      public String getContainer() {
+         return container;
+      }
+
+      public String getObject() {
+         return object;
+      }
+
+      public String getMethod() {
+         return method;
+      }
+
+      public long getTtlSeconds() {
+         return ttlSeconds;
+      }
+
+      @Override
+      public String toString() {
+         return method + " " + container + "/" + object + " for " + ttlSeconds + "s";
+      }
+   }
+}
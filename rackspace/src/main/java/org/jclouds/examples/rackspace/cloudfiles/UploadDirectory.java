@@ -0,0 +1,385 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudfiles;
+
+import static com.google.common.io.Closeables.closeQuietly;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.http.HttpRequest;
+import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpResponseException;
+import org.jclouds.io.Payload;
+import org.jclouds.io.Payloads;
+import org.jclouds.openstack.swift.CommonSwiftAsyncClient;
+import org.jclouds.openstack.swift.CommonSwiftClient;
+import org.jclouds.openstack.swift.domain.SwiftObject;
+import org.jclouds.rest.RestContext;
+import org.jclouds.util.Strings2;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Upload every file below a local directory to the object storage container from the CreateContainer example.
+ *
+ * When objects are small the time per request dominates, so this example keeps many requests in flight on reused
+ * connections. In "objects" mode each file is uploaded with its own PUT through the async Swift API. In "archive"
+ * mode files are packed into tar archives and each archive is uploaded with a single bulk extract request, which
+ * Cloud Files unpacks into one object per file.
+ *
+ * Object names are the paths of the files relative to the directory.
+ */
+public class UploadDirectory implements Closeable {
+   private static final String MODE_OBJECTS = "objects";
+   private static final String MODE_ARCHIVE = "archive";
+   // Bulk extract answers 200 even when some files failed, the failures are listed in the body
+   private static final Pattern NO_ERRORS = Pattern.compile("\"Errors\"\\s*:\\s*\\[\\s*\\]");
+
+   private BlobStoreContext storageContext;
+   private BlobStore storage;
+   private RestContext<CommonSwiftClient, CommonSwiftAsyncClient> swift;
+
+   private int concurrency = 64;
+   private int filesPerArchive = 1000;
+
+   private final AtomicInteger uploaded = new AtomicInteger();
+   private final AtomicInteger failed = new AtomicInteger();
+
+   /**
+    * To get a username and API key see http://www.jclouds.org/documentation/quickstart/rackspace/
+    *
+    * The first argument (args[0]) must be your username
+    * The second argument (args[1]) must be your API key
+    * The third argument (args[2]) must be the absolute path to a directory
+    * The optional fourth argument (args[3]) is the number of uploads in flight, the default is 64
+    * The optional fifth argument (args[4]) is the upload mode, "objects" (the default) or "archive"
+    * The optional sixth argument (args[5]) is the number of files in each archive, the default is 1000
+    */
+   public static void main(String[] args) {
+      UploadDirectory uploadDirectory = new UploadDirectory();
+
+      try {
+         uploadDirectory.init(args);
+
+         File directory = new File(args[2]);
+         String mode = args.length > 4 ? args[4] : MODE_OBJECTS;
+
+         if (MODE_OBJECTS.equals(mode)) {
+            uploadDirectory.uploadObjects(directory);
+         }
+         else if (MODE_ARCHIVE.equals(mode)) {
+            uploadDirectory.uploadArchives(directory);
+         }
+         else {
+            throw new IllegalArgumentException("mode must be " + MODE_OBJECTS + " or " + MODE_ARCHIVE);
+         }
+      }
+      catch (Exception e) {
+         e.printStackTrace();
+      }
+      finally {
+         uploadDirectory.close();
+      }
+   }
+
+   private void init(String[] args) {
+      // The provider configures jclouds To use the Rackspace Cloud (US)
+      // To use the Rackspace Cloud (UK) set the provider to "cloudfiles-uk"
+      String provider = "cloudfiles-us";
+
+      String username = args[0];
+      String apiKey = args[1];
+
+      if (args.length > 3) {
+         concurrency = Integer.parseInt(args[3]);
+      }
+      if (args.length > 5) {
+         filesPerArchive = Integer.parseInt(args[5]);
+      }
+
+      // The JDK only keeps 5 idle connections per host by default, any more are closed after each request
+      System.setProperty("http.maxConnections", String.valueOf(concurrency));
+
+      // These properties let jclouds keep as many requests in flight as we ask for
+      Properties overrides = new Properties();
+      overrides.setProperty(org.jclouds.Constants.PROPERTY_MAX_CONNECTIONS_PER_CONTEXT, String.valueOf(concurrency));
+      overrides.setProperty(org.jclouds.Constants.PROPERTY_MAX_CONNECTIONS_PER_HOST, String.valueOf(concurrency));
+      overrides.setProperty(org.jclouds.Constants.PROPERTY_USER_THREADS, String.valueOf(concurrency));
+      overrides.setProperty(org.jclouds.Constants.PROPERTY_IO_WORKER_THREADS, String.valueOf(concurrency));
+
+      storageContext = ContextBuilder.newBuilder(provider)
+            .credentials(username, apiKey)
+            .overrides(overrides)
+            .buildView(BlobStoreContext.class);
+      storage = storageContext.getBlobStore();
+      swift = storageContext.unwrap();
+   }
+
+   /**
+    * Upload each file with its own PUT, keeping at most concurrency uploads in flight. Files are uploaded as the
+    * directory is walked, so the whole tree is never held in memory.
+    */
+   private void uploadObjects(File directory) throws InterruptedException, IOException {
+      System.out.println("Upload Objects From Directory");
+
+      final Semaphore inFlight = new Semaphore(concurrency);
+      long start = System.currentTimeMillis();
+
+      walk(directory, "", new FileVisitor() {
+         @Override
+         public void visit(final String name, File file) throws InterruptedException {
+            SwiftObject object = swift.getApi().newSwiftObject();
+            object.getInfo().setName(name);
+            object.setPayload(file);
+
+            inFlight.acquire();
+            ListenableFuture<String> eTag = swift.getAsyncApi().putObject(Constants.CONTAINER, object);
+
+            Futures.addCallback(eTag, new FutureCallback<String>() {
+               @Override
+               public void onSuccess(String result) {
+                  uploaded.incrementAndGet();
+                  inFlight.release();
+               }
+
+               @Override
+               public void onFailure(Throwable t) {
+                  failed.incrementAndGet();
+                  System.err.println("  " + name + " failed: " + t.getMessage());
+                  inFlight.release();
+               }
+            });
+         }
+      });
+
+      // Wait for the outstanding uploads to finish
+      inFlight.acquire(concurrency);
+      inFlight.release(concurrency);
+
+      printRate(start);
+   }
+
+   /**
+    * Pack the files into tar archives of filesPerArchive files and upload each archive with a bulk extract request.
+    * Archives are built on local disk while earlier archives are uploading.
+    */
+   private void uploadArchives(File directory) throws InterruptedException, IOException {
+      System.out.println("Upload Archives From Directory");
+
+      final ArchiveUploader uploader = new ArchiveUploader(bulkExtractEndpoint());
+      long start = System.currentTimeMillis();
+
+      try {
+         walk(directory, "", new FileVisitor() {
+            @Override
+            public void visit(String name, File file) throws InterruptedException, IOException {
+               uploader.add(name, file);
+            }
+         });
+         uploader.flush();
+         uploader.awaitUploads();
+      }
+      finally {
+         uploader.shutdown();
+      }
+
+      printRate(start);
+   }
+
+   /**
+    * Bulk extract is a PUT on the container URL. We let jclouds sign an ordinary request on the container, which
+    * gives us the storage URL of the account and the auth token.
+    */
+   private HttpRequest bulkExtractEndpoint() {
+      HttpRequest request = storageContext.getSigner().signRemoveBlob(Constants.CONTAINER, "bulk-extract");
+      String objectUri = request.getEndpoint().toString();
+      URI containerUri = URI.create(objectUri.substring(0, objectUri.lastIndexOf('/')) + "?extract-archive=tar");
+
+      return request.toBuilder()
+            .method("PUT")
+            .endpoint(containerUri)
+            .replaceHeader("Accept", "application/json")
+            .build();
+   }
+
+   /**
+    * Fills an archive at a time and uploads full archives in the background, at most concurrency at once.
+    */
+   private class ArchiveUploader {
+      private final HttpRequest bulkExtract;
+      private final ListeningExecutorService executor =
+            MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(concurrency));
+      private final Semaphore inFlight = new Semaphore(concurrency);
+
+      private File archive;
+      private TarWriter tar;
+      private int files;
+
+      ArchiveUploader(HttpRequest bulkExtract) {
+         this.bulkExtract = bulkExtract;
+      }
+
+      void add(String name, File file) throws IOException, InterruptedException {
+         if (tar == null) {
+            archive = File.createTempFile("jclouds-bulk", ".tar");
+            archive.deleteOnExit();
+            tar = new TarWriter(new BufferedOutputStream(new FileOutputStream(archive)));
+            files = 0;
+         }
+
+         tar.add(name, file);
+
+         if (++files == filesPerArchive) {
+            flush();
+         }
+      }
+
+      void flush() throws IOException, InterruptedException {
+         if (tar == null) {
+            return;
+         }
+
+         tar.close();
+         tar = null;
+
+         final File full = archive;
+         final int count = files;
+
+         inFlight.acquire();
+         ListenableFuture<Void> upload = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+               try {
+                  upload(full);
+                  return null;
+               }
+               finally {
+                  full.delete();
+               }
+            }
+         });
+
+         Futures.addCallback(upload, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+               uploaded.addAndGet(count);
+               inFlight.release();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+               failed.addAndGet(count);
+               System.err.println("  Archive of " + count + " files failed: " + t.getMessage());
+               inFlight.release();
+            }
+         });
+      }
+
+      private void upload(File archive) throws IOException {
+         Payload payload = Payloads.newFilePayload(archive);
+         payload.getContentMetadata().setContentType("application/x-tar");
+         HttpRequest request = bulkExtract.toBuilder().payload(payload).build();
+
+         HttpResponse response = storageContext.utils().http().invoke(request);
+         int statusCode = response.getStatusCode();
+
+         try {
+            String body = response.getPayload() == null ? "" : Strings2.toString(response.getPayload());
+
+            if (statusCode >= 200 && statusCode < 299 && NO_ERRORS.matcher(body).find()) {
+               System.out.println("  " + body.replace('\n', ' ').trim());
+            }
+            else {
+               throw new HttpResponseException(body, null, response);
+            }
+         }
+         finally {
+            if (response.getPayload() != null) {
+               response.getPayload().release();
+            }
+         }
+      }
+
+      void awaitUploads() throws InterruptedException {
+         inFlight.acquire(concurrency);
+         inFlight.release(concurrency);
+      }
+
+      void shutdown() {
+         closeQuietly(tar);
+         executor.shutdownNow();
+      }
+   }
+
+   private interface FileVisitor {
+      void visit(String name, File file) throws InterruptedException, IOException;
+   }
+
+   private static void walk(File directory, String prefix, FileVisitor visitor)
+         throws InterruptedException, IOException {
+      File[] children = directory.listFiles();
+
+      if (children == null) {
+         return;
+      }
+
+      for (File child: children) {
+         String name = prefix + child.getName();
+
+         if (child.isDirectory()) {
+            walk(child, name + "/", visitor);
+         }
+         else if (child.isFile()) {
+            visitor.visit(name, child);
+         }
+      }
+   }
+
+   private void printRate(long start) {
+      double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+
+      System.out.println(String.format("  %d objects uploaded, %d failed in %.1f s (%.1f objects/s)",
+            uploaded.get(), failed.get(), seconds, uploaded.get() / seconds));
+   }
+
+   /**
+    * Always close your service when you're done with it.
+    */
+   public void close() {
+      closeQuietly(storage.getContext());
+   }
+}
@@ -23,13 +23,27 @@ import static org.jclouds.blobstore.options.PutOptions.Builder.multipart;
 
 import java.io.Closeable;
 import java.io.File;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 
 import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.io.Payload;
+import org.jclouds.io.PayloadSlicer;
+import org.jclouds.io.Payloads;
+import org.jclouds.openstack.swift.CommonSwiftAsyncClient;
+import org.jclouds.openstack.swift.CommonSwiftClient;
+import org.jclouds.openstack.swift.domain.SwiftObject;
+import org.jclouds.rest.RestContext;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 /**
  * Upload a large object in the object storage container from the CreateContainer example.
@@ -37,7 +51,15 @@ import org.jclouds.blobstore.domain.Blob;
  * @author Everett Toews
  */
 public class UploadLargeObject implements Closeable {
+   private static final String MODE_MULTIPART = "multipart";
+   private static final String MODE_MANIFEST = "manifest";
+
    private BlobStore storage;
+   private RestContext<CommonSwiftClient, CommonSwiftAsyncClient> swift;
+   private PayloadSlicer slicer;
+
+   private int parallelDegree = 5;
+   private long partSize = 67108864; // 64 MB
 
    /**
     * To get a username and API key see http://www.jclouds.org/documentation/quickstart/rackspace/
@@ -45,13 +67,29 @@ public class UploadLargeObject implements Closeable {
     * The first argument (args[0]) must be your username
     * The second argument (args[1]) must be your API key
     * The third argument (args[2]) must be the absolute path to a large file
+    * The optional fourth argument (args[3]) is the number of parts uploaded in parallel, the default is 5
+    * The optional fifth argument (args[4]) is the size of each part in bytes, the default is 67108864 (64 MB)
+    * The optional sixth argument (args[5]) is the upload mode, "multipart" (the default) uses the BlobStore API
+    *    and "manifest" uploads the segments and a dynamic large object manifest with the Swift API
     */
    public static void main(String[] args) {
       UploadLargeObject createContainer = new UploadLargeObject();
 
       try {
          createContainer.init(args);
-         createContainer.uploadLargeObjectFromFile(new File(args[2]));
+
+         File largeFile = new File(args[2]);
+         String mode = args.length > 5 ? args[5] : MODE_MULTIPART;
+
+         if (MODE_MANIFEST.equals(mode)) {
+            createContainer.uploadLargeObjectWithManifest(largeFile);
+         }
+         else if (MODE_MULTIPART.equals(mode)) {
+            createContainer.uploadLargeObjectFromFile(largeFile);
+         }
+         else {
+            throw new IllegalArgumentException("mode must be " + MODE_MULTIPART + " or " + MODE_MANIFEST);
+         }
       }
       catch (Exception e) {
          e.printStackTrace();
@@ -69,20 +107,30 @@ public class UploadLargeObject implements Closeable {
       String username = args[0];
       String apiKey = args[1];
 
+      if (args.length > 3) {
+         parallelDegree = Integer.parseInt(args[3]);
+      }
+      if (args.length > 4) {
+         partSize = Long.parseLong(args[4]);
+      }
+
       Properties overrides = new Properties();
       // This property controls the number of parts being uploaded in parallel, the default is 4
-      overrides.setProperty("jclouds.mpu.parallel.degree", "5");
+      overrides.setProperty("jclouds.mpu.parallel.degree", String.valueOf(parallelDegree));
       // This property controls the size (in bytes) of parts being uploaded in parallel, the default is 33554432 bytes = 32 MB 
-      overrides.setProperty("jclouds.mpu.parts.size", "67108864"); // 64 MB
+      overrides.setProperty("jclouds.mpu.parts.size", String.valueOf(partSize));
       
       BlobStoreContext context = ContextBuilder.newBuilder(provider)
             .credentials(username, apiKey)
+            .overrides(overrides)
             .buildView(BlobStoreContext.class);
       storage = context.getBlobStore();
+      swift = context.unwrap();
+      slicer = context.utils().injector().getInstance(PayloadSlicer.class);
    }
 
    /**
-    * Upload a large object from a File using the Swift API. 
+    * Upload a large object from a File using the BlobStore API. 
     * @throws ExecutionException 
     * @throws InterruptedException 
     */
@@ -93,9 +141,72 @@ public class UploadLargeObject implements Closeable {
             .payload(largeFile)
             .build();
       
+      long start = System.currentTimeMillis();
       String eTag = storage.putBlob(Constants.CONTAINER, blob, multipart());
 
       System.out.println("  Uploaded " + largeFile.getName() + " eTag=" + eTag);
+      printThroughput("  Total", largeFile.length(), start);
+   }
+
+   /**
+    * Upload a large object from a File as a Dynamic Large Object using the Swift API.
+    * 
+    * The file is split into segments named largeFile/00000001, largeFile/00000002, ... which are uploaded 
+    * concurrently, at most parallelDegree at a time. The manifest object is written last. A GET on the manifest 
+    * returns the segments concatenated in order.
+    */
+   private void uploadLargeObjectWithManifest(File largeFile) throws InterruptedException, ExecutionException {
+      System.out.println("Upload Large Object With Manifest");
+
+      final Semaphore inFlight = new Semaphore(parallelDegree);
+      List<ListenableFuture<String>> segments = Lists.newArrayList();
+      Payload file = Payloads.newFilePayload(largeFile);
+      long start = System.currentTimeMillis();
+      int segmentNumber = 0;
+
+      for (long offset = 0; offset < largeFile.length(); offset += partSize) {
+         final long length = Math.min(partSize, largeFile.length() - offset);
+         final String segmentName = String.format("%s/%08d", largeFile.getName(), ++segmentNumber);
+
+         SwiftObject segment = swift.getApi().newSwiftObject();
+         segment.getInfo().setName(segmentName);
+         segment.setPayload(slicer.slice(file, offset, length));
+
+         inFlight.acquire();
+         final long segmentStart = System.currentTimeMillis();
+         ListenableFuture<String> eTag = swift.getAsyncApi().putObject(Constants.CONTAINER, segment);
+
+         Futures.addCallback(eTag, new FutureCallback<String>() {
+            @Override
+            public void onSuccess(String result) {
+               inFlight.release();
+               printThroughput("  " + segmentName, length, segmentStart);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+               inFlight.release();
+               System.err.println("  " + segmentName + " failed: " + t.getMessage());
+            }
+         });
+
+         segments.add(eTag);
+      }
+
+      // Fails if any segment failed, so we never write a manifest that points at missing segments
+      Futures.allAsList(segments).get();
+
+      swift.getApi().putObjectManifest(Constants.CONTAINER, largeFile.getName());
+
+      System.out.println("  Uploaded " + largeFile.getName() + " in " + segments.size() + " segments");
+      printThroughput("  Total", largeFile.length(), start);
+   }
+
+   private static void printThroughput(String label, long bytes, long start) {
+      double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+
+      System.out.println(String.format("%s: %d bytes in %.1f s (%.2f MB/s)", 
+            label, bytes, seconds, bytes / seconds / (1024 * 1024)));
    }
 
    /**
@@ -0,0 +1,333 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudloadbalancers;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jclouds.examples.rackspace.StatusPoller;
+import org.jclouds.rackspace.cloudloadbalancers.v1.CloudLoadBalancersApi;
+import org.jclouds.rackspace.cloudloadbalancers.v1.domain.AddNode;
+import org.jclouds.rackspace.cloudloadbalancers.v1.domain.LoadBalancer;
+import org.jclouds.rackspace.cloudloadbalancers.v1.domain.UpdateNode;
+import org.jclouds.rackspace.cloudloadbalancers.v1.features.NodeApi;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Buffers node changes per load balancer and applies them in as few calls as possible.
+ *
+ * A load balancer is immutable (PENDING_UPDATE) after every change until it is ACTIVE again, so changing nodes one
+ * call at a time, as AddNodes, UpdateNodes and RemoveNodes do, means a wait after every call and a 422 for anyone who
+ * doesn't wait. Here the changes to a load balancer are collected for a short window and then applied together:
+ * <ul>
+ * <li>all of the removes in one call per 10 nodes, the most the API takes at once</li>
+ * <li>all of the adds in one call, with a repeated address and port added only once</li>
+ * <li>one update per node, however many updates it got, with the later fields winning</li>
+ * </ul>
+ * A node that is removed isn't updated too. The API has no bulk update, so each update is still a call of its own.
+ * Every change of a batch completes together, once the load balancer is ACTIVE after the last call of the batch, so a
+ * caller making many changes waits once rather than after each of them. Changes made while a batch is being applied
+ * go into the next batch. All of the waiting is done by a shared StatusPoller, and a batch whose load balancer isn't
+ * ACTIVE again within the timeout, or is gone, fails.
+ */
+public class NodeChangeBatcher implements Closeable {
+   private static final int MAX_REMOVES_PER_CALL = 10;
+
+   private final CloudLoadBalancersApi clb;
+   private final String zone;
+   private final StatusPoller poller;
+   private final long windowMillis;
+   private final long timeoutMillis;
+   private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+   private final ConcurrentMap<Integer, LoadBalancerChanges> changes = Maps.newConcurrentMap();
+   private final AtomicInteger changesRequested = new AtomicInteger();
+   private final AtomicInteger apiCalls = new AtomicInteger();
+   private final AtomicInteger batches = new AtomicInteger();
+   private volatile boolean closed;
+
+   /**
+    * @param window how long to collect changes to a load balancer before applying them
+    * @param timeout how long to wait for the load balancer to be ACTIVE again after each call
+    */
+   public NodeChangeBatcher(CloudLoadBalancersApi clb, String zone, StatusPoller poller, long window, long timeout,
+         TimeUnit unit) {
+      this.clb = checkNotNull(clb, "clb");
+      this.zone = checkNotNull(zone, "zone");
+      this.poller = checkNotNull(poller, "poller");
+      this.windowMillis = unit.toMillis(window);
+      this.timeoutMillis = unit.toMillis(timeout);
+   }
+
+   /**
+    * @return a future that completes when the batch with this change has been applied
+    */
+   public ListenableFuture<Void> add(int loadBalancerId, AddNode addNode) {
+      checkNotNull(addNode, "addNode");
+      LoadBalancerChanges lbChanges = changesFor(loadBalancerId);
+
+      synchronized (lbChanges) {
+         Batch batch = lbChanges.pending();
+         batch.adds.put(addNode.getAddress() + ":" + addNode.getPort(), addNode);
+         return batch.done;
+      }
+   }
+
+   /**
+    * @return a future that completes when the batch with this change has been applied
+    */
+   public ListenableFuture<Void> update(int loadBalancerId, int nodeId, UpdateNode updateNode) {
+      checkNotNull(updateNode, "updateNode");
+      LoadBalancerChanges lbChanges = changesFor(loadBalancerId);
+
+      synchronized (lbChanges) {
+         Batch batch = lbChanges.pending();
+         if (!batch.removes.contains(nodeId)) {
+            batch.updates.put(nodeId, merge(batch.updates.get(nodeId), updateNode));
+         }
+         return batch.done;
+      }
+   }
+
+   /**
+    * @return a future that completes when the batch with this change has been applied
+    */
+   public ListenableFuture<Void> remove(int loadBalancerId, int nodeId) {
+      LoadBalancerChanges lbChanges = changesFor(loadBalancerId);
+
+      synchronized (lbChanges) {
+         Batch batch = lbChanges.pending();
+         batch.updates.remove(nodeId);
+         batch.removes.add(nodeId);
+         return batch.done;
+      }
+   }
+
+   /**
+    * @return the number of changes asked for, which the number of API calls can be compared against
+    */
+   public int getChangesRequested() {
+      return changesRequested.get();
+   }
+
+   /**
+    * @return the number of node API calls made, not counting the listings of the poller
+    */
+   public int getApiCalls() {
+      return apiCalls.get();
+   }
+
+   public int getBatches() {
+      return batches.get();
+   }
+
+   @Override
+   public String toString() {
+      return String.format("%d changes applied in %d batches with %d API calls", changesRequested.get(),
+            batches.get(), apiCalls.get());
+   }
+
+   /**
+    * Stops applying batches. The futures of changes that haven't been applied yet fail, and so does the future of a
+    * batch that is interrupted while it's being applied.
+    */
+   @Override
+   public void close() {
+      closed = true;
+      scheduler.shutdownNow();
+
+      for (LoadBalancerChanges lbChanges: changes.values()) {
+         Batch batch;
+
+         synchronized (lbChanges) {
+            batch = lbChanges.pending;
+            lbChanges.pending = null;
+         }
+
+         if (batch != null) {
+            batch.done.setException(new IllegalStateException("closed before the batch was applied"));
+         }
+      }
+   }
+
+   private LoadBalancerChanges changesFor(int loadBalancerId) {
+      changesRequested.incrementAndGet();
+      LoadBalancerChanges lbChanges = changes.get(loadBalancerId);
+
+      if (lbChanges == null) {
+         changes.putIfAbsent(loadBalancerId, new LoadBalancerChanges(loadBalancerId));
+         lbChanges = changes.get(loadBalancerId);
+      }
+
+      return lbChanges;
+   }
+
+   private static UpdateNode merge(UpdateNode earlier, UpdateNode later) {
+      if (earlier == null) {
+         return later;
+      }
+
+      return UpdateNode.builder()
+            .condition(later.getCondition() != null ? later.getCondition() : earlier.getCondition())
+            .type(later.getType() != null ? later.getType() : earlier.getType())
+            .weight(later.getWeight() != null ? later.getWeight() : earlier.getWeight())
+            .build();
+   }
+
+   /**
+    * The changes of one load balancer. Batches are applied one at a time, in the order they were started.
+    */
+   private class LoadBalancerChanges implements Runnable {
+      private final int loadBalancerId;
+      private final Object applyLock = new Object();
+      private Batch pending;
+
+      LoadBalancerChanges(int loadBalancerId) {
+         this.loadBalancerId = loadBalancerId;
+      }
+
+      /**
+       * Call while holding the lock of this object.
+       *
+       * @return the batch that is still taking changes, starting one if there is none
+       */
+      Batch pending() {
+         checkState(!closed, "closed");
+
+         if (pending == null) {
+            pending = new Batch();
+            scheduler.schedule(this, windowMillis, TimeUnit.MILLISECONDS);
+         }
+
+         return pending;
+      }
+
+      @Override
+      public void run() {
+         Batch batch;
+
+         // From here on new changes go into a new batch
+         synchronized (this) {
+            batch = pending;
+            pending = null;
+         }
+
+         // Already failed by close
+         if (batch == null) {
+            return;
+         }
+
+         // A batch holds its thread until it's applied, so the next batch of this load balancer waits for it
+         synchronized (applyLock) {
+            if (closed) {
+               batch.done.setException(new IllegalStateException("closed before the batch was applied"));
+               return;
+            }
+
+            batches.incrementAndGet();
+
+            try {
+               apply(batch);
+               batch.done.set(null);
+            }
+            catch (Exception e) {
+               batch.done.setException(e);
+            }
+         }
+      }
+
+      private void apply(Batch batch) throws InterruptedException, ExecutionException, TimeoutException {
+         NodeApi nodeApi = clb.getNodeApiForZoneAndLoadBalancer(zone, loadBalancerId);
+
+         for (List<Integer> removes: Iterables.partition(batch.removes, MAX_REMOVES_PER_CALL)) {
+            apiCalls.incrementAndGet();
+            nodeApi.remove(removes);
+            awaitActive();
+         }
+
+         if (!batch.adds.isEmpty()) {
+            apiCalls.incrementAndGet();
+            nodeApi.add(batch.adds.values());
+            awaitActive();
+         }
+
+         for (Map.Entry<Integer, UpdateNode> update: batch.updates.entrySet()) {
+            apiCalls.incrementAndGet();
+            nodeApi.update(update.getKey(), update.getValue());
+            awaitActive();
+         }
+      }
+
+      /**
+       * Stops the poller from waiting on the load balancer if it times out.
+       */
+      private void awaitActive() throws InterruptedException, ExecutionException, TimeoutException {
+         ListenableFuture<LoadBalancer> active = poller.await(StatusPoller.loadBalancers(clb, zone),
+               String.valueOf(loadBalancerId), hasStatus(LoadBalancer.Status.ACTIVE),
+               hasStatus(LoadBalancer.Status.ERROR));
+
+         try {
+            active.get(timeoutMillis, TimeUnit.MILLISECONDS);
+         }
+         finally {
+            active.cancel(false);
+         }
+      }
+   }
+
+   private static class Batch {
+      private final Map<String, AddNode> adds = Maps.newLinkedHashMap();
+      private final Map<Integer, UpdateNode> updates = Maps.newLinkedHashMap();
+      private final Set<Integer> removes = Sets.newLinkedHashSet();
+      private final SettableFuture<Void> done = SettableFuture.create();
+   }
+
+   /**
+    * A load balancer that is gone will never get the status, so the wait for it fails.
+    */
+   private static Predicate<LoadBalancer> hasStatus(final LoadBalancer.Status status) {
+      return new Predicate<LoadBalancer>() {
+         @Override
+         public boolean apply(LoadBalancer loadBalancer) {
+            if (loadBalancer == null) {
+               throw new IllegalStateException("Load balancer is gone while waiting for " + status);
+            }
+
+            return loadBalancer.getStatus() == status;
+         }
+      };
+   }
+}
@@ -0,0 +1,405 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudloadbalancers;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.examples.rackspace.StatusPoller;
+import org.jclouds.rackspace.cloudloadbalancers.v1.CloudLoadBalancersApi;
+import org.jclouds.rackspace.cloudloadbalancers.v1.domain.AddNode;
+import org.jclouds.rackspace.cloudloadbalancers.v1.domain.Node;
+import org.jclouds.rackspace.cloudloadbalancers.v1.domain.UpdateNode;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Replaces the nodes of a load balancer with new servers, a batch at a time, without taking it out of service.
+ *
+ * For each batch the new servers are provisioned, the way CloudServersPublish does it, and have to answer HTTP
+ * before anything else happens. Then they are added and the old nodes of the batch are set to DRAINING, so the old
+ * nodes take no new connections while the ones they have can finish. The changes go through a NodeChangeBatcher, which
+ * adds all of the new nodes in one call, but the API has no bulk update so each old node is set to DRAINING with a
+ * call of its own, and the load balancer has to be ACTIVE again after each call. A batch of n nodes therefore takes
+ * n + 1 changes of the load balancer to start draining, which is what limits a large batchSize. After the drain time
+ * the old nodes are removed and their servers retired, and the next batch starts.
+ *
+ * At most batchSize nodes are draining at once, which bounds the capacity lost at any time. Provisioning is by far
+ * the slowest step, so the servers of the next parallelism batches are provisioned and health checked while the
+ * current batch drains, and no node waits on the one before it. A batch whose new servers fail the health check
+ * stops the rotation before the load balancer is touched: the batches already rotated stay rotated, the unhealthy
+ * and the unused new servers are retired and the remaining old nodes keep serving. A batch that fails or is interrupted
+ * after its new servers were added stops the rotation too. Its new servers are left in place and reported as a
+ * partial batch, and the servers provisioned ahead for later batches are retired.
+ */
+public class RollingNodeRotation implements Closeable {
+   private final CloudLoadBalancersApi clb;
+   private final String zone;
+   private final NodeChangeBatcher batcher;
+   private final Provisioner provisioner;
+   private final int batchSize;
+   private final int parallelism;
+   private final long drainMillis;
+   private final long healthTimeoutMillis;
+   private final ListeningExecutorService executor;
+
+   /**
+    * Where the new servers come from and where the old ones go.
+    */
+   public interface Provisioner {
+      /**
+       * @return count new servers, running the service the load balancer sends requests to
+       */
+      Set<? extends NodeMetadata> provision(int count) throws Exception;
+
+      /**
+       * Deletes the servers with these private addresses.
+       */
+      void retire(Iterable<String> privateAddresses);
+   }
+
+   /**
+    * @param batchSize the number of nodes replaced, and draining, at once
+    * @param parallelism the number of batches provisioned ahead of the one being replaced
+    * @param drainTime how long the old nodes get to finish their connections, at least the longest request
+    * @param healthTimeout how long the new servers get to answer HTTP
+    */
+   public RollingNodeRotation(CloudLoadBalancersApi clb, String zone, StatusPoller poller, Provisioner provisioner,
+         int batchSize, int parallelism, long drainTime, long healthTimeout, TimeUnit unit) {
+      checkArgument(batchSize > 0 && parallelism > 0, "batchSize and parallelism must be positive");
+      this.clb = checkNotNull(clb, "clb");
+      this.zone = checkNotNull(zone, "zone");
+      this.batcher = new NodeChangeBatcher(clb, zone, poller, 1, TimeUnit.MINUTES.toSeconds(10), TimeUnit.SECONDS);
+      this.provisioner = checkNotNull(provisioner, "provisioner");
+      this.batchSize = batchSize;
+      this.parallelism = parallelism;
+      this.drainMillis = unit.toMillis(drainTime);
+      this.healthTimeoutMillis = unit.toMillis(healthTimeout);
+      this.executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(parallelism));
+   }
+
+   /**
+    * Replaces every node of the load balancer that matches the selector. An interrupt stops the rotation like a
+    * failure does, it is reported and the interrupt status of the thread is kept.
+    */
+   public Report rotate(int loadBalancerId, Predicate<? super Node> selector) {
+      long start = System.currentTimeMillis();
+      List<Node> nodes = ImmutableList.copyOf(clb.getNodeApiForZoneAndLoadBalancer(zone, loadBalancerId)
+            .list().concat().filter(selector));
+      List<List<Node>> batches = Lists.partition(nodes, batchSize);
+      List<ListenableFuture<Set<? extends NodeMetadata>>> provisions = Lists.newArrayList();
+      List<BatchResult> results = Lists.newArrayList();
+      Exception failure = null;
+      // The provisions from here on haven't been handed to replace, so nothing else retires their servers
+      int unused = 0;
+
+      try {
+         for (int i = 0; i < batches.size() && failure == null; i++) {
+            // Keep the next batches provisioning while this one is replaced
+            while (provisions.size() < Math.min(batches.size(), i + 1 + parallelism)) {
+               provisions.add(executor.submit(new Provision(batches.get(provisions.size()).size())));
+            }
+
+            long batchStart = System.currentTimeMillis();
+            List<Node> oldNodes = batches.get(i);
+            Set<? extends NodeMetadata> newServers = null;
+            long healthyMillis = -1;
+
+            try {
+               newServers = provisions.get(i).get();
+               unused = i + 1;
+               healthyMillis = System.currentTimeMillis() - batchStart;
+
+               replace(loadBalancerId, oldNodes, newServers);
+            }
+            catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               failure = e;
+            }
+            catch (ExecutionException e) {
+               failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            catch (RuntimeException e) {
+               failure = e;
+            }
+
+            // A batch that failed after getting its servers may have added them to the load balancer
+            if (newServers != null) {
+               results.add(new BatchResult(oldNodes, newServers, healthyMillis,
+                     System.currentTimeMillis() - batchStart, failure == null));
+            }
+         }
+      }
+      finally {
+         retireUnused(provisions.subList(unused, provisions.size()));
+      }
+
+      return new Report(results, nodes.size(), failure, System.currentTimeMillis() - start);
+   }
+
+   private void replace(int loadBalancerId, List<Node> oldNodes, Set<? extends NodeMetadata> newServers)
+         throws InterruptedException, ExecutionException {
+      List<ListenableFuture<Void>> changes = Lists.newArrayList();
+      List<NodeMetadata> servers = ImmutableList.copyOf(newServers);
+
+      // One batch of the batcher adds the new nodes and starts draining the old ones
+      for (int i = 0; i < servers.size(); i++) {
+         Node replaced = oldNodes.get(Math.min(i, oldNodes.size() - 1));
+         AddNode.Builder addNode = AddNode.builder()
+               .address(servers.get(i).getPrivateAddresses().iterator().next())
+               .condition(Node.Condition.ENABLED)
+               .port(replaced.getPort());
+
+         if (replaced.getWeight() != null) {
+            addNode.weight(replaced.getWeight());
+         }
+
+         changes.add(batcher.add(loadBalancerId, addNode.build()));
+      }
+      for (Node node: oldNodes) {
+         changes.add(batcher.update(loadBalancerId, node.getId(),
+               UpdateNode.builder().condition(Node.Condition.DRAINING).build()));
+      }
+      Futures.allAsList(changes).get();
+
+      Thread.sleep(drainMillis);
+
+      changes.clear();
+      List<String> oldAddresses = Lists.newArrayList();
+      for (Node node: oldNodes) {
+         changes.add(batcher.remove(loadBalancerId, node.getId()));
+         oldAddresses.add(node.getAddress());
+      }
+      Futures.allAsList(changes).get();
+
+      provisioner.retire(oldAddresses);
+   }
+
+   /**
+    * Waits for provisions that are still running even if the thread is interrupted, since their servers would be
+    * left behind otherwise.
+    */
+   private void retireUnused(List<ListenableFuture<Set<? extends NodeMetadata>>> provisions) {
+      for (ListenableFuture<Set<? extends NodeMetadata>> provision: provisions) {
+         try {
+            provisioner.retire(privateAddresses(Uninterruptibles.getUninterruptibly(provision)));
+         }
+         catch (Exception e) {
+            // That batch failed on its own and retired its servers
+         }
+      }
+   }
+
+   private static List<String> privateAddresses(Iterable<? extends NodeMetadata> servers) {
+      List<String> addresses = Lists.newArrayList();
+
+      for (NodeMetadata server: servers) {
+         addresses.addAll(server.getPrivateAddresses());
+      }
+
+      return addresses;
+   }
+
+   /**
+    * @return true if the server answered HTTP 200 before the health timeout
+    */
+   private boolean awaitHealthy(NodeMetadata server) throws InterruptedException {
+      URL url;
+
+      try {
+         url = new URL("http://" + server.getPublicAddresses().iterator().next() + "/");
+      }
+      catch (IOException e) {
+         return false;
+      }
+
+      long deadline = System.currentTimeMillis() + healthTimeoutMillis;
+
+      while (System.currentTimeMillis() < deadline) {
+         try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(5000);
+
+            try {
+               if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                  return true;
+               }
+            }
+            finally {
+               connection.disconnect();
+            }
+         }
+         catch (IOException e) {
+            // Not up yet
+         }
+
+         Thread.sleep(5000);
+      }
+
+      return false;
+   }
+
+   @Override
+   public void close() {
+      executor.shutdownNow();
+      batcher.close();
+   }
+
+   /**
+    * Provisions the servers of one batch and checks that every one of them is healthy.
+    */
+   private class Provision implements Callable<Set<? extends NodeMetadata>> {
+      private final int count;
+
+      Provision(int count) {
+         this.count = count;
+      }
+
+      @Override
+      public Set<? extends NodeMetadata> call() throws Exception {
+         Set<? extends NodeMetadata> servers = provisioner.provision(count);
+
+         if (servers == null || servers.size() < count) {
+            if (servers != null) {
+               provisioner.retire(privateAddresses(servers));
+            }
+
+            throw new IllegalStateException("Provisioning " + count + " servers failed");
+         }
+
+         for (NodeMetadata server: servers) {
+            if (!awaitHealthy(server)) {
+               provisioner.retire(privateAddresses(servers));
+               throw new IllegalStateException(server.getPublicAddresses() + " failed its health check");
+            }
+         }
+
+         return servers;
+      }
+   }
+
+   public static class BatchResult {
+      private final List<Node> oldNodes;
+      private final Set<? extends NodeMetadata> newServers;
+      private final long healthyMillis;
+      private final long millis;
+      private final boolean complete;
+
+      BatchResult(List<Node> oldNodes, Set<? extends NodeMetadata> newServers, long healthyMillis, long millis,
+            boolean complete) {
+         this.oldNodes = ImmutableList.copyOf(oldNodes);
+         this.newServers = newServers;
+         this.healthyMillis = healthyMillis;
+         this.millis = millis;
+         this.complete = complete;
+      }
+
+      public List<Node> getOldNodes() {
+         return oldNodes;
+      }
+
+      public Set<? extends NodeMetadata> getNewServers() {
+         return newServers;
+      }
+
+      /**
+       * @return false if the batch stopped part way, its new servers may be in the load balancer next to old nodes
+       *         that are still there, or draining
+       */
+      public boolean isComplete() {
+         return complete;
+      }
+
+      @Override
+      public String toString() {
+         List<String> oldAddresses = Lists.newArrayList();
+         for (Node node: oldNodes) {
+            oldAddresses.add(node.getAddress());
+         }
+
+         return String.format("%s %s by %s, healthy after %.1f s, %s after %.1f s", oldAddresses,
+               complete ? "replaced" : "partly replaced", privateAddresses(newServers), healthyMillis / 1000.0,
+               complete ? "done" : "stopped", millis / 1000.0);
+      }
+   }
+
+   public static class Report {
+      private final List<BatchResult> batches;
+      private final int nodes;
+      private final Exception failure;
+      private final long millis;
+
+      Report(List<BatchResult> batches, int nodes, Exception failure, long millis) {
+         this.batches = ImmutableList.copyOf(batches);
+         this.nodes = nodes;
+         this.failure = failure;
+         this.millis = millis;
+      }
+
+      public List<BatchResult> getBatches() {
+         return batches;
+      }
+
+      /**
+       * @return the reason the rotation stopped early, or null if every node was replaced
+       */
+      public Exception getFailure() {
+         return failure;
+      }
+
+      @Override
+      public String toString() {
+         StringBuilder report = new StringBuilder();
+         int replaced = 0;
+
+         for (BatchResult batch: batches) {
+            report.append("  ").append(batch).append(String.format("%n"));
+            if (batch.complete) {
+               replaced += batch.oldNodes.size();
+            }
+         }
+         if (failure != null) {
+            report.append("  Stopped: ").append(failure).append(String.format("%n"));
+         }
+
+         return report.append(String.format("  %d of %d nodes replaced in %.1f s", replaced, nodes,
+               millis / 1000.0)).toString();
+      }
+   }
+}
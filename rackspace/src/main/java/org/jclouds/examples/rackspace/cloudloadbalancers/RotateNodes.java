@@ -0,0 +1,168 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudloadbalancers;
+
+import static com.google.common.io.Closeables.closeQuietly;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.ContextBuilder;
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.ComputeServiceContext;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.examples.rackspace.StatusPoller;
+import org.jclouds.examples.rackspace.cloudservers.CloudServersPublish;
+import org.jclouds.rackspace.cloudloadbalancers.v1.CloudLoadBalancersApi;
+import org.jclouds.rackspace.cloudloadbalancers.v1.domain.LoadBalancer;
+import org.jclouds.rackspace.cloudloadbalancers.v1.domain.Node;
+import org.jclouds.rackspace.cloudloadbalancers.v1.features.LoadBalancerApi;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * This example replaces the Nodes of a Load Balancer with new Cloud Servers, a batch at a time, with a
+ * RollingNodeRotation. The new servers are published the same way as in CloudServersPublish.
+ * 
+ * Run CreateLoadBalancerWithNewServers first.
+ */
+public class RotateNodes {
+   private CloudLoadBalancersApi clb;
+   private LoadBalancerApi lbApi;
+   private ComputeService compute;
+   private String username;
+   private String apiKey;
+
+   /**
+    * To get a username and API key see http://www.jclouds.org/documentation/quickstart/rackspace/
+    * 
+    * The first argument (args[0]) must be your username
+    * The second argument (args[1]) must be your API key
+    * The optional third argument (args[2]) is the number of Nodes replaced at once, the default is 1
+    * The optional fourth argument (args[3]) is the number of batches provisioned ahead, the default is 1
+    * The optional fifth argument (args[4]) is the number of seconds the old Nodes get to drain, the default is 30
+    */
+   public static void main(String[] args) {
+      RotateNodes rotateNodes = new RotateNodes();
+
+      try {
+         rotateNodes.init(args);
+         LoadBalancer loadBalancer = rotateNodes.getLoadBalancer();
+         rotateNodes.rotateNodes(loadBalancer,
+               args.length > 2 ? Integer.parseInt(args[2]) : 1,
+               args.length > 3 ? Integer.parseInt(args[3]) : 1,
+               args.length > 4 ? Integer.parseInt(args[4]) : 30);
+      }
+      catch (Exception e) {
+         e.printStackTrace();
+      }
+      finally {
+         rotateNodes.close();
+      }
+   }
+
+   private void init(String[] args) {
+      // The provider configures jclouds To use the Rackspace Cloud (US)
+      // To use the Rackspace Cloud (UK) set the provider to "rackspace-cloudloadbalancers-uk"
+      String provider = "rackspace-cloudloadbalancers-us";
+
+      username = args[0];
+      apiKey = args[1];
+
+      clb = ContextBuilder.newBuilder(provider)
+            .credentials(username, apiKey)
+            .buildApi(CloudLoadBalancersApi.class);
+      lbApi = clb.getLoadBalancerApiForZone(Constants.ZONE);
+
+      // The old servers are deleted through the ComputeService
+      compute = ContextBuilder.newBuilder("rackspace-cloudservers-us")
+            .credentials(username, apiKey)
+            .buildView(ComputeServiceContext.class)
+            .getComputeService();
+   }
+
+   private LoadBalancer getLoadBalancer() {
+      for (LoadBalancer loadBalancer: lbApi.list().concat()) {
+         if (loadBalancer.getName().startsWith(Constants.NAME)) {
+            return loadBalancer;
+         }
+      }
+
+      throw new RuntimeException(Constants.NAME + " not found. Run a CreateLoadBalancer* example first.");
+   }
+
+   private void rotateNodes(LoadBalancer loadBalancer, int batchSize, int parallelism, int drainSeconds) {
+      System.out.println("Rotate Nodes");
+
+      StatusPoller poller = new StatusPoller(2, 10, TimeUnit.SECONDS);
+      RollingNodeRotation rotation = new RollingNodeRotation(clb, Constants.ZONE, poller, new PublishedServers(),
+            batchSize, parallelism, drainSeconds, 300, TimeUnit.SECONDS);
+
+      try {
+         System.out.println(rotation.rotate(loadBalancer.getId(), new Predicate<Node>() {
+            @Override
+            public boolean apply(Node node) {
+               return node.getCondition() == Node.Condition.ENABLED;
+            }
+         }));
+      }
+      finally {
+         rotation.close();
+         poller.close();
+      }
+   }
+
+   /**
+    * New servers come from CloudServersPublish, old ones are found by their private address and deleted.
+    */
+   private class PublishedServers implements RollingNodeRotation.Provisioner {
+      @Override
+      public Set<? extends NodeMetadata> provision(int count) {
+         return CloudServersPublish.getPublishedCloudServers(
+               ImmutableList.of(username, apiKey, String.valueOf(count), "pipelined"));
+      }
+
+      @Override
+      public void retire(Iterable<String> privateAddresses) {
+         final Set<String> addresses = ImmutableSet.copyOf(privateAddresses);
+
+         Set<? extends NodeMetadata> destroyed = compute.destroyNodesMatching(new Predicate<NodeMetadata>() {
+            @Override
+            public boolean apply(NodeMetadata node) {
+               return !Sets.intersection(node.getPrivateAddresses(), addresses).isEmpty();
+            }
+         });
+
+         for (NodeMetadata node: destroyed) {
+            System.out.println("  Retired " + node.getId() + " " + node.getPrivateAddresses());
+         }
+      }
+   }
+
+   /**
+    * Always close your service when you're done with it.
+    */
+   public void close() {
+      closeQuietly(clb);
+      closeQuietly(compute.getContext());
+   }
+}
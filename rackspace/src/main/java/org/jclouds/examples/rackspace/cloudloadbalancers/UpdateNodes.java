@@ -20,10 +20,14 @@ package org.jclouds.examples.rackspace.cloudloadbalancers;
 
 import static com.google.common.io.Closeables.closeQuietly;
 
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.jclouds.ContextBuilder;
+import org.jclouds.examples.rackspace.StatusPoller;
 import org.jclouds.rackspace.cloudloadbalancers.v1.CloudLoadBalancersApi;
 import org.jclouds.rackspace.cloudloadbalancers.v1.domain.LoadBalancer;
 import org.jclouds.rackspace.cloudloadbalancers.v1.domain.Node;
@@ -32,11 +36,16 @@ import org.jclouds.rackspace.cloudloadbalancers.v1.features.LoadBalancerApi;
 import org.jclouds.rackspace.cloudloadbalancers.v1.features.NodeApi;
 import org.jclouds.rackspace.cloudloadbalancers.v1.predicates.LoadBalancerPredicates;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 /**
  * This example updates Nodes in a Load Balancer. 
- *  
+ * 
+ * In batched mode the updates go through a NodeChangeBatcher, which waits for the Load Balancer once for all of them.
+ * 
  * @author Everett Toews
  */
 public class UpdateNodes {
@@ -48,6 +57,7 @@ public class UpdateNodes {
     * 
     * The first argument (args[0]) must be your username
     * The second argument (args[1]) must be your API key
+    * The optional third argument (args[2]) is "batched" to apply the updates with a NodeChangeBatcher
     */
    public static void main(String[] args) {
       UpdateNodes updateNodes = new UpdateNodes();
@@ -56,7 +66,13 @@ public class UpdateNodes {
          updateNodes.init(args);
          LoadBalancer loadBalancer = updateNodes.getLoadBalancer();
          Set<Node> nodes = updateNodes.getNodes(loadBalancer);
-         updateNodes.updateNodesInLoadBalancer(nodes, loadBalancer);
+
+         if (args.length > 2 && "batched".equals(args[2])) {
+            updateNodes.updateNodesInLoadBalancerBatched(nodes, loadBalancer);
+         }
+         else {
+            updateNodes.updateNodesInLoadBalancer(nodes, loadBalancer);
+         }
       }
       catch (Exception e) {
          e.printStackTrace();
@@ -125,6 +141,35 @@ public class UpdateNodes {
       }
    }
 
+   /**
+    * Each node is updated twice, enabled and then given a weight, to show the updates being merged into one per node.
+    */
+   private void updateNodesInLoadBalancerBatched(Set<Node> nodes, LoadBalancer loadBalancer)
+         throws InterruptedException, ExecutionException {
+      System.out.println("Update Nodes (batched)");
+
+      StatusPoller poller = new StatusPoller(2, 10, TimeUnit.SECONDS);
+      NodeChangeBatcher batcher = new NodeChangeBatcher(clb, Constants.ZONE, poller, 500,
+            TimeUnit.MINUTES.toMillis(10), TimeUnit.MILLISECONDS);
+      List<ListenableFuture<Void>> updates = Lists.newArrayList();
+
+      try {
+         for (Node node: nodes) {
+            updates.add(batcher.update(loadBalancer.getId(), node.getId(),
+                  UpdateNode.builder().condition(Node.Condition.ENABLED).build()));
+            updates.add(batcher.update(loadBalancer.getId(), node.getId(), UpdateNode.builder().weight(20).build()));
+         }
+
+         Futures.allAsList(updates).get();
+
+         System.out.println("  " + batcher);
+      }
+      finally {
+         batcher.close();
+         poller.close();
+      }
+   }
+
    /**
     * Always close your service when you're done with it.
     */
@@ -0,0 +1,255 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudservers;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.openstack.nova.v2_0.features.ServerApi;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Applies one metadata operation to every server that matches a predicate.
+ *
+ * Up to concurrency requests are in flight at once, and a RateLimiter spaces them out so the batch stays under the
+ * Nova rate limit for your account instead of running into 413 Over Limit responses halfway through. Each server
+ * gets a Result with how long its request took and the error if it failed, and the failure of one server doesn't
+ * stop the others.
+ */
+public class BulkMetadata implements Closeable {
+   private final ServerApi serverApi;
+   private final RateLimiter rateLimiter;
+   private final ListeningExecutorService executor;
+
+   /**
+    * @param requestsPerSecond the sustained rate of metadata requests, see the limits of your account
+    */
+   public BulkMetadata(ServerApi serverApi, int concurrency, double requestsPerSecond) {
+      checkArgument(concurrency > 0, "concurrency must be positive");
+      this.serverApi = checkNotNull(serverApi, "serverApi");
+      this.rateLimiter = RateLimiter.create(requestsPerSecond);
+      this.executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(concurrency));
+   }
+
+   /**
+    * @return the result for each selected server, in listing order
+    */
+   public Report apply(Predicate<? super Server> selector, final Operation operation)
+         throws InterruptedException, ExecutionException {
+      List<ListenableFuture<Result>> results = Lists.newArrayList();
+      long start = System.currentTimeMillis();
+
+      for (final Server server: serverApi.listInDetail().concat().filter(selector)) {
+         results.add(executor.submit(new Callable<Result>() {
+            @Override
+            public Result call() {
+               long started = System.currentTimeMillis();
+
+               try {
+                  operation.apply(serverApi, rateLimiter, server.getId());
+                  return new Result(server, System.currentTimeMillis() - started, null);
+               }
+               catch (RuntimeException e) {
+                  return new Result(server, System.currentTimeMillis() - started, e);
+               }
+            }
+         }));
+      }
+
+      return new Report(operation, Futures.allAsList(results).get(), System.currentTimeMillis() - start);
+   }
+
+   @Override
+   public void close() {
+      executor.shutdownNow();
+   }
+
+   /**
+    * A metadata change applied to a single server. An operation acquires a permit before each request it makes, so
+    * the rate limit holds for operations that take more than one request.
+    */
+   public abstract static class Operation {
+      abstract void apply(ServerApi serverApi, RateLimiter rateLimiter, String serverId);
+
+      /**
+       * Replaces all of the metadata of each server.
+       */
+      public static Operation set(final Map<String, String> metadata) {
+         final Map<String, String> copy = ImmutableMap.copyOf(metadata);
+
+         return new Operation() {
+            @Override
+            void apply(ServerApi serverApi, RateLimiter rateLimiter, String serverId) {
+               rateLimiter.acquire();
+               serverApi.setMetadata(serverId, copy);
+            }
+
+            @Override
+            public String toString() {
+               return "set " + copy;
+            }
+         };
+      }
+
+      /**
+       * Adds or changes these keys and leaves the other keys alone.
+       */
+      public static Operation update(final Map<String, String> metadata) {
+         final Map<String, String> copy = ImmutableMap.copyOf(metadata);
+
+         return new Operation() {
+            @Override
+            void apply(ServerApi serverApi, RateLimiter rateLimiter, String serverId) {
+               rateLimiter.acquire();
+               serverApi.updateMetadata(serverId, copy);
+            }
+
+            @Override
+            public String toString() {
+               return "update " + copy;
+            }
+         };
+      }
+
+      /**
+       * Removes these keys, one request per key.
+       */
+      public static Operation delete(Set<String> keys) {
+         final Set<String> copy = ImmutableSet.copyOf(keys);
+
+         return new Operation() {
+            @Override
+            void apply(ServerApi serverApi, RateLimiter rateLimiter, String serverId) {
+               for (String key: copy) {
+                  rateLimiter.acquire();
+                  serverApi.deleteMetadata(serverId, key);
+               }
+            }
+
+            @Override
+            public String toString() {
+               return "delete " + copy;
+            }
+         };
+      }
+   }
+
+   public static class Result {
+      private final Server server;
+      private final long millis;
+      private final Exception error;
+
+      Result(Server server, long millis, Exception error) {
+         this.server = server;
+         this.millis = millis;
+         this.error = error;
+      }
+
+      public Server getServer() {
+         return server;
+      }
+
+      public long getMillis() {
+         return millis;
+      }
+
+      public boolean isSuccess() {
+         return error == null;
+      }
+
+      /**
+       * @return the reason the operation failed, or null if it succeeded
+       */
+      public Exception getError() {
+         return error;
+      }
+
+      @Override
+      public String toString() {
+         return String.format("%s (%s) %s in %d ms", server.getName(), server.getId(),
+               error == null ? "ok" : "failed: " + error.getMessage(), millis);
+      }
+   }
+
+   public static class Report {
+      private final Operation operation;
+      private final List<Result> results;
+      private final long millis;
+
+      Report(Operation operation, List<Result> results, long millis) {
+         this.operation = operation;
+         this.results = ImmutableList.copyOf(results);
+         this.millis = millis;
+      }
+
+      public List<Result> getResults() {
+         return results;
+      }
+
+      public int getFailures() {
+         int failures = 0;
+
+         for (Result result: results) {
+            if (!result.isSuccess()) {
+               failures++;
+            }
+         }
+
+         return failures;
+      }
+
+      /**
+       * @return servers per second over the whole batch
+       */
+      public double getOpsPerSecond() {
+         return results.size() / (Math.max(1, millis) / 1000.0);
+      }
+
+      @Override
+      public String toString() {
+         StringBuilder report = new StringBuilder(operation.toString()).append('\n');
+
+         for (Result result: results) {
+            report.append("  ").append(result).append('\n');
+         }
+
+         return report.append(String.format("  %d servers, %d failed, %.1f ops/s", results.size(), getFailures(),
+               getOpsPerSecond())).toString();
+      }
+   }
+}
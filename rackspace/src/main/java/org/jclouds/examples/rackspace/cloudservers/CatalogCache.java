@@ -0,0 +1,367 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudservers;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.domain.Hardware;
+import org.jclouds.compute.domain.HardwareBuilder;
+import org.jclouds.compute.domain.Image;
+import org.jclouds.compute.domain.ImageBuilder;
+import org.jclouds.compute.domain.OperatingSystem;
+import org.jclouds.compute.domain.OsFamily;
+import org.jclouds.compute.domain.Template;
+import org.jclouds.compute.domain.internal.TemplateImpl;
+import org.jclouds.domain.Location;
+import org.jclouds.domain.LocationBuilder;
+import org.jclouds.domain.LocationScope;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Keeps the locations, hardware profiles and images of a provider in a local file so picking what a server is made
+ * of doesn't have to list them all again on every run.
+ *
+ * A catalog younger than half its TTL is used as is. An older one is still used but a refresh is started in the
+ * background, so the next run gets fresh data without waiting for it. A catalog past its TTL, or no catalog at all,
+ * is listed from the provider before returning. The three listings run in parallel.
+ *
+ * Only what it takes to create a server is kept: ids, names, RAM and operating systems. The Template returned by
+ * {@link Catalog#template} is built directly from those, so no listing happens in createNodesInGroup either.
+ */
+public class CatalogCache implements Closeable {
+   private static final String LOCATION = "L";
+   private static final String HARDWARE = "H";
+   private static final String IMAGE = "I";
+   private static final String NONE = "-";
+   private static final int IMAGE_FIELDS = 11;
+   private static final Joiner TAB_JOINER = Joiner.on('\t');
+   private static final Splitter TAB_SPLITTER = Splitter.on('\t');
+
+   private final ComputeService compute;
+   private final File file;
+   private final long ttlMillis;
+   private final ExecutorService refresher = Executors.newSingleThreadExecutor();
+   private final AtomicBoolean refreshing = new AtomicBoolean();
+   private volatile Catalog catalog;
+
+   public CatalogCache(ComputeService compute, File file, long ttl, TimeUnit unit) {
+      checkArgument(ttl > 0, "ttl must be positive");
+      this.compute = checkNotNull(compute, "compute");
+      this.file = checkNotNull(file, "file");
+      this.ttlMillis = unit.toMillis(ttl);
+   }
+
+   /**
+    * @return the catalog from memory or the local file, listing it from the provider only when it has expired
+    */
+   public Catalog get() throws IOException {
+      if (catalog == null && file.exists()) {
+         catalog = read();
+      }
+
+      if (catalog == null || catalog.age() > ttlMillis) {
+         catalog = listAndWrite();
+      }
+      else if (catalog.age() > ttlMillis / 2) {
+         refreshInBackground();
+      }
+
+      return catalog;
+   }
+
+   private void refreshInBackground() {
+      if (!refreshing.compareAndSet(false, true)) {
+         return;
+      }
+
+      refresher.submit(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               catalog = listAndWrite();
+            }
+            catch (Exception e) {
+               // The current catalog stays in use, the next run tries again
+               System.err.println("Catalog refresh failed: " + e);
+            }
+            finally {
+               refreshing.set(false);
+            }
+         }
+      });
+   }
+
+   private Catalog listAndWrite() throws IOException {
+      ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(3));
+
+      try {
+         ListenableFuture<Set<? extends Location>> locations =
+               executor.submit(new Callable<Set<? extends Location>>() {
+            @Override
+            public Set<? extends Location> call() {
+               return compute.listAssignableLocations();
+            }
+         });
+         ListenableFuture<Set<? extends Hardware>> hardware =
+               executor.submit(new Callable<Set<? extends Hardware>>() {
+            @Override
+            public Set<? extends Hardware> call() {
+               return compute.listHardwareProfiles();
+            }
+         });
+         ListenableFuture<Set<? extends Image>> images = executor.submit(new Callable<Set<? extends Image>>() {
+            @Override
+            public Set<? extends Image> call() {
+               return compute.listImages();
+            }
+         });
+
+         Catalog listed = new Catalog(System.currentTimeMillis(), locations.get(), hardware.get(), images.get());
+         write(listed);
+
+         return listed;
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw Throwables.propagate(e);
+      }
+      catch (ExecutionException e) {
+         throw Throwables.propagate(e.getCause());
+      }
+      finally {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * One line per entry, tab separated, with the time it was listed on the first line. The file is written next to
+    * its final name and renamed so a reader never sees half a catalog.
+    */
+   private void write(Catalog catalog) throws IOException {
+      StringBuilder lines = new StringBuilder().append(catalog.listedAt).append('\n');
+
+      for (Location location: catalog.locations.values()) {
+         lines.append(TAB_JOINER.join(LOCATION, location.getId(), clean(location.getDescription()))).append('\n');
+      }
+
+      for (Hardware profile: catalog.hardware) {
+         lines.append(TAB_JOINER.join(HARDWARE, profile.getId(), profile.getProviderId(),
+               locationId(profile.getLocation()), clean(profile.getName()), profile.getRam())).append('\n');
+      }
+
+      for (Image image: catalog.imagesByOsName.values()) {
+         OperatingSystem os = image.getOperatingSystem();
+         lines.append(TAB_JOINER.join(IMAGE, image.getId(), image.getProviderId(), locationId(image.getLocation()),
+               clean(image.getName()), clean(image.getDescription()), clean(os.getName()),
+               clean(os.getDescription()), clean(os.getVersion()),
+               os.getFamily() == null ? OsFamily.UNRECOGNIZED : os.getFamily(), os.is64Bit())).append('\n');
+      }
+
+      File parent = file.getAbsoluteFile().getParentFile();
+      parent.mkdirs();
+      File temp = File.createTempFile(file.getName(), ".tmp", parent);
+      Files.write(lines, temp, Charsets.UTF_8);
+
+      if (!temp.renameTo(file)) {
+         file.delete();
+         Files.move(temp, file);
+      }
+   }
+
+   private Catalog read() throws IOException {
+      List<String> lines = Files.readLines(file, Charsets.UTF_8);
+
+      if (lines.isEmpty()) {
+         return null;
+      }
+
+      Map<String, Location> locations = Maps.newLinkedHashMap();
+      List<Hardware> hardware = Lists.newArrayList();
+      List<Image> images = Lists.newArrayList();
+
+      for (String line: lines.subList(1, lines.size())) {
+         List<String> fields = ImmutableList.copyOf(TAB_SPLITTER.split(line));
+
+         if (fields.get(0).equals(LOCATION)) {
+            locations.put(fields.get(1), new LocationBuilder()
+                  .scope(LocationScope.ZONE)
+                  .id(fields.get(1))
+                  .description(fields.get(2))
+                  .build());
+         }
+         else if (fields.get(0).equals(HARDWARE)) {
+            hardware.add(new HardwareBuilder()
+                  .id(fields.get(1))
+                  .providerId(fields.get(2))
+                  .location(locations.get(fields.get(3)))
+                  .name(fields.get(4))
+                  .ram(Integer.parseInt(fields.get(5)))
+                  .build());
+         }
+         else if (fields.get(0).equals(IMAGE)) {
+            // Written before images had a description, list the catalog again
+            if (fields.size() != IMAGE_FIELDS) {
+               return null;
+            }
+
+            images.add(new ImageBuilder()
+                  .id(fields.get(1))
+                  .providerId(fields.get(2))
+                  .location(locations.get(fields.get(3)))
+                  .name(fields.get(4))
+                  .description(fields.get(5))
+                  .operatingSystem(OperatingSystem.builder()
+                        .name(fields.get(6))
+                        .description(fields.get(7))
+                        .version(fields.get(8))
+                        .family(OsFamily.fromValue(fields.get(9)))
+                        .is64Bit(Boolean.parseBoolean(fields.get(10)))
+                        .build())
+                  .status(Image.Status.AVAILABLE)
+                  .build());
+         }
+      }
+
+      return new Catalog(Long.parseLong(lines.get(0)), locations.values(), hardware, images);
+   }
+
+   private static String locationId(Location location) {
+      return location == null ? NONE : location.getId();
+   }
+
+   private static String clean(String value) {
+      return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ');
+   }
+
+   @Override
+   public void close() {
+      refresher.shutdownNow();
+   }
+
+   /**
+    * An index of the catalog by location id, RAM and operating system name.
+    */
+   public class Catalog {
+      private final long listedAt;
+      private final Map<String, Location> locations = Maps.newLinkedHashMap();
+      private final List<Hardware> hardware = Lists.newArrayList();
+      private final Map<String, NavigableMap<Integer, Hardware>> hardwareByLocationAndRam = Maps.newHashMap();
+      private final ListMultimap<String, Image> imagesByOsName = ArrayListMultimap.create();
+
+      Catalog(long listedAt, Collection<? extends Location> locations, Collection<? extends Hardware> hardware,
+            Collection<? extends Image> images) {
+         this.listedAt = listedAt;
+
+         for (Location location: locations) {
+            this.locations.put(location.getId(), location);
+         }
+         for (Hardware profile: hardware) {
+            String locationId = locationId(profile.getLocation());
+
+            if (!hardwareByLocationAndRam.containsKey(locationId)) {
+               hardwareByLocationAndRam.put(locationId, Maps.<Integer, Hardware> newTreeMap());
+            }
+
+            this.hardware.add(profile);
+            hardwareByLocationAndRam.get(locationId).put(profile.getRam(), profile);
+         }
+         for (Image image: images) {
+            imagesByOsName.put(image.getOperatingSystem().getName(), image);
+         }
+      }
+
+      public long age() {
+         return System.currentTimeMillis() - listedAt;
+      }
+
+      public Collection<Location> getLocations() {
+         return locations.values();
+      }
+
+      public Location getLocation(String id) {
+         return locations.get(id);
+      }
+
+      /**
+       * @return the hardware profile with the least RAM that has at least minRam MB in the location, or anywhere if
+       *         it has no location, or null
+       */
+      public Hardware getHardware(int minRam, String locationId) {
+         Hardware result = null;
+
+         for (String key: new String[] { locationId, NONE }) {
+            NavigableMap<Integer, Hardware> byRam = hardwareByLocationAndRam.get(key);
+            Map.Entry<Integer, Hardware> entry = byRam == null ? null : byRam.ceilingEntry(minRam);
+
+            if (entry != null && (result == null || entry.getKey() < result.getRam())) {
+               result = entry.getValue();
+            }
+         }
+
+         return result;
+      }
+
+      /**
+       * @return an image with this operating system name in the location, or anywhere if it has no location, or null
+       */
+      public Image getImage(String osName, String locationId) {
+         for (Image image: imagesByOsName.get(osName)) {
+            if (image.getLocation() == null || image.getLocation().getId().equals(locationId)) {
+               return image;
+            }
+         }
+
+         return null;
+      }
+
+      public Template template(Location location, Hardware hardware, Image image) {
+         return new TemplateImpl(image, hardware, location, compute.templateOptions());
+      }
+   }
+}
@@ -28,6 +28,9 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeoutException;
 
 import org.jclouds.ContextBuilder;
@@ -45,15 +48,25 @@ import org.jclouds.sshj.config.SshjSshClientModule;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.Module;
 
 /**
  * This example creates a server, start a web server on it, and publish a page on the internet!
+ * 
+ * In pipelined mode every server is configured on its own thread: each one starts installing the web server as
+ * soon as its own SSH port opens instead of waiting for the servers before it, so publishing N servers takes about
+ * as long as the slowest one.
  */
 public class CloudServersPublish implements Closeable {
    private ComputeService compute;
    int numServers;
+   boolean pipelined;
 
    /**
     * To get a username and API key see
@@ -61,7 +74,8 @@ public class CloudServersPublish implements Closeable {
     * 
     * The first argument (args[0]) must be your username 
     * The second argument (args[1]) must be your API key
-    * The optional third argument (args[1]) is the number of Cloud Servers to start
+    * The optional third argument (args[2]) is the number of Cloud Servers to start
+    * The optional fourth argument (args[3]) is "pipelined" to configure the servers concurrently
     */
    public static void main(String[] args) {
       getPublishedCloudServers(Arrays.asList(args));
@@ -74,7 +88,13 @@ public class CloudServersPublish implements Closeable {
       try {
          cloudServersPublish.init(args);
          nodes = cloudServersPublish.createServer();
-         cloudServersPublish.configureAndStartWebserver(nodes);
+
+         if (cloudServersPublish.pipelined) {
+            cloudServersPublish.configureAndStartWebserverPipelined(nodes);
+         }
+         else {
+            cloudServersPublish.configureAndStartWebserver(nodes);
+         }
          
          return nodes;
       }
@@ -95,7 +115,8 @@ public class CloudServersPublish implements Closeable {
 
       String username = args.get(0);
       String apiKey = args.get(1);
-      numServers = args.size() == 3 ? Integer.valueOf(args.get(2)) : 1;
+      numServers = args.size() >= 3 ? Integer.valueOf(args.get(2)) : 1;
+      pipelined = args.size() >= 4 && "pipelined".equals(args.get(3));
 
       Iterable<Module> modules = ImmutableSet.<Module> of(new SshjSshClientModule());
 
@@ -136,38 +157,106 @@ public class CloudServersPublish implements Closeable {
    private void configureAndStartWebserver(Set<? extends NodeMetadata> nodes) throws TimeoutException {
       for (NodeMetadata nodeMetadata: nodes) {
          String publicAddress = nodeMetadata.getPublicAddresses().iterator().next();
-         String privateAddress = nodeMetadata.getPrivateAddresses().iterator().next();
 
          System.out.println("Configure And Start Webserver");
 
          awaitSsh(publicAddress);
 
-         String message = new StringBuilder()
-         .append("Hello from ").append(nodeMetadata.getHostname())
-         .append(" @ ").append(publicAddress).append("/").append(privateAddress)
-         .append(" in ").append(nodeMetadata.getLocation().getParent().getId())
-         .toString();
+         RunScriptOptions options = RunScriptOptions.Builder.blockOnComplete(true);
 
-         String script = new ScriptBuilder().addStatement(exec("yum -y install httpd"))
-               .addStatement(exec("/usr/sbin/apachectl start"))
-               .addStatement(exec("iptables -I INPUT -p tcp --dport 80 -j ACCEPT"))
-               .addStatement(exec("echo '" + message + "' > /var/www/html/index.html"))
-               .render(OsFamily.UNIX);
+         compute.runScriptOnNode(nodeMetadata.getId(), webserverScript(nodeMetadata), options);
 
-         RunScriptOptions options = RunScriptOptions.Builder.blockOnComplete(true);
+         printLogin(nodeMetadata);
+      }
+   }
+
+   /**
+    * This method will wait for SSH and run the web server script on every node at the same time. Each node moves
+    * on to its script as soon as its own SSH port opens.
+    */
+   private void configureAndStartWebserverPipelined(Set<? extends NodeMetadata> nodes)
+         throws InterruptedException, ExecutionException {
+      System.out.println("Configure And Start Webserver (pipelined)");
+
+      ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(nodes.size()));
+      List<ListenableFuture<NodeTiming>> timings = Lists.newArrayList();
+      final long start = System.currentTimeMillis();
+
+      try {
+         for (final NodeMetadata nodeMetadata: nodes) {
+            timings.add(executor.submit(new Callable<NodeTiming>() {
+               @Override
+               public NodeTiming call() throws TimeoutException {
+                  String publicAddress = nodeMetadata.getPublicAddresses().iterator().next();
+
+                  if (!awaitSsh(publicAddress)) {
+                     throw new TimeoutException("SSH never opened on " + publicAddress);
+                  }
+
+                  long ready = System.currentTimeMillis();
+                  RunScriptOptions options = RunScriptOptions.Builder.blockOnComplete(true);
+                  compute.runScriptOnNode(nodeMetadata.getId(), webserverScript(nodeMetadata), options);
+
+                  return new NodeTiming(nodeMetadata, ready - start, System.currentTimeMillis() - start);
+               }
+            }));
+         }
 
-         compute.runScriptOnNode(nodeMetadata.getId(), script, options);
+         for (NodeTiming timing: Futures.allAsList(timings).get()) {
+            System.out.println(String.format("  %s ready after %.1f s, bootstrapped after %.1f s",
+                  timing.nodeMetadata.getId(), timing.readyMillis / 1000.0, timing.bootstrappedMillis / 1000.0));
+            printLogin(timing.nodeMetadata);
+         }
 
-         System.out.println("  Login: ssh " + nodeMetadata.getCredentials().getUser() + "@" + publicAddress);
-         System.out.println("  Password: " + nodeMetadata.getCredentials().getPassword());
-         System.out.println("  Go to http://" + publicAddress);
+         System.out.println(String.format("  %d servers published in %.1f s", nodes.size(),
+               (System.currentTimeMillis() - start) / 1000.0));
+      }
+      finally {
+         executor.shutdownNow();
       }
    }
 
-   private void awaitSsh(String ip) throws TimeoutException {
+   private String webserverScript(NodeMetadata nodeMetadata) {
+      String publicAddress = nodeMetadata.getPublicAddresses().iterator().next();
+      String privateAddress = nodeMetadata.getPrivateAddresses().iterator().next();
+
+      String message = new StringBuilder()
+      .append("Hello from ").append(nodeMetadata.getHostname())
+      .append(" @ ").append(publicAddress).append("/").append(privateAddress)
+      .append(" in ").append(nodeMetadata.getLocation().getParent().getId())
+      .toString();
+
+      return new ScriptBuilder().addStatement(exec("yum -y install httpd"))
+            .addStatement(exec("/usr/sbin/apachectl start"))
+            .addStatement(exec("iptables -I INPUT -p tcp --dport 80 -j ACCEPT"))
+            .addStatement(exec("echo '" + message + "' > /var/www/html/index.html"))
+            .render(OsFamily.UNIX);
+   }
+
+   private void printLogin(NodeMetadata nodeMetadata) {
+      String publicAddress = nodeMetadata.getPublicAddresses().iterator().next();
+
+      System.out.println("  Login: ssh " + nodeMetadata.getCredentials().getUser() + "@" + publicAddress);
+      System.out.println("  Password: " + nodeMetadata.getCredentials().getPassword());
+      System.out.println("  Go to http://" + publicAddress);
+   }
+
+   private boolean awaitSsh(String ip) {
       SocketOpen socketOpen = compute.getContext().utils().injector().getInstance(SocketOpen.class);
       Predicate<HostAndPort> socketTester = retry(socketOpen, 300, 5, 5, SECONDS);
-      socketTester.apply(HostAndPort.fromParts(ip, 22));
+      return socketTester.apply(HostAndPort.fromParts(ip, 22));
+   }
+
+   private static class NodeTiming {
+      private final NodeMetadata nodeMetadata;
+      private final long readyMillis;
+      private final long bootstrappedMillis;
+
+      NodeTiming(NodeMetadata nodeMetadata, long readyMillis, long bootstrappedMillis) {
+         this.nodeMetadata = nodeMetadata;
+         this.readyMillis = readyMillis;
+         this.bootstrappedMillis = bootstrappedMillis;
+      }
    }
 
    /**
@@ -21,8 +21,11 @@ package org.jclouds.examples.rackspace.cloudservers;
 import static com.google.common.io.Closeables.closeQuietly;
 
 import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.jclouds.ContextBuilder;
@@ -35,13 +38,21 @@ import org.jclouds.compute.domain.Image;
 import org.jclouds.compute.domain.NodeMetadata;
 import org.jclouds.compute.domain.Template;
 import org.jclouds.domain.Location;
+import org.jclouds.examples.rackspace.cloudservers.CatalogCache.Catalog;
 
 /**
  * This example creates an Ubuntu 12.04 server with 512 MB of RAM on the Rackspace Cloud. 
+ * 
+ * In cached mode the location, hardware and image are picked from a CatalogCache kept in your home directory, so
+ * only the first run (and a run after the cache expires) lists them from the Rackspace Cloud.
  *  
  * @author Everett Toews
  */
 public class CreateServer implements Closeable {
+   private static final String OS_NAME = "Ubuntu 12.04 LTS (Precise Pangolin)";
+   private static final File CATALOG_FILE =
+         new File(System.getProperty("user.home"), ".jclouds-examples/rackspace-cloudservers-us.catalog");
+
    private ComputeService compute;
 
    /**
@@ -49,13 +60,20 @@ public class CreateServer implements Closeable {
     * 
     * The first argument (args[0]) must be your username
     * The second argument (args[1]) must be your API key
+    * The optional third argument (args[2]) is "cached" to pick the image, hardware and location from a CatalogCache
     */
    public static void main(String[] args) {
       CreateServer createServer = new CreateServer();
 
       try {
          createServer.init(args);
-         createServer.createServer();
+
+         if (args.length > 2 && "cached".equals(args[2])) {
+            createServer.createServerFromCatalog();
+         }
+         else {
+            createServer.createServer();
+         }
       }
       catch (Exception e) {
          e.printStackTrace();
@@ -104,6 +122,41 @@ public class CreateServer implements Closeable {
             .fromImage(getImage())
             .build();
 
+      createServer(template);
+   }
+
+   /**
+    * Create a server from a Template built out of the CatalogCache. Once the catalog is cached this makes no calls
+    * to list locations, hardware or images at all.
+    */
+   private void createServerFromCatalog() throws RunNodesException, TimeoutException, IOException {
+      CatalogCache catalogCache = new CatalogCache(compute, CATALOG_FILE, 1, TimeUnit.DAYS);
+
+      try {
+         long start = System.currentTimeMillis();
+         Catalog catalog = catalogCache.get();
+
+         Location location = catalog.getLocations().iterator().next();
+         Hardware hardware = catalog.getHardware(512, location.getId());
+         Image image = catalog.getImage(OS_NAME, location.getId());
+
+         if (hardware == null || image == null) {
+            throw new IllegalStateException("No 512 MB flavor or " + OS_NAME + " image in " + location.getId());
+         }
+
+         System.out.println("Catalog");
+         System.out.println(String.format("  %s, %s and %s picked in %d ms (catalog is %d minutes old)",
+               location.getId(), hardware.getId(), image.getId(), System.currentTimeMillis() - start,
+               TimeUnit.MILLISECONDS.toMinutes(catalog.age())));
+
+         createServer(catalog.template(location, hardware, image));
+      }
+      finally {
+         catalogCache.close();
+      }
+   }
+
+   private void createServer(Template template) throws RunNodesException, TimeoutException {
       System.out.println("Create Server");
 
       // This method will continue to poll for the server status and won't return until this server is ACTIVE
@@ -175,7 +228,7 @@ public class CreateServer implements Closeable {
 
       for (Image image: images) {
          System.out.println("  " + image);
-         if (image.getOperatingSystem().getName().equals("Ubuntu 12.04 LTS (Precise Pangolin)")) {
+         if (image.getOperatingSystem().getName().equals(OS_NAME)) {
             result = image;
          }
       }
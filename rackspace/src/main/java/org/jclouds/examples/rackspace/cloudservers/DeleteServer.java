@@ -24,33 +24,56 @@ import static org.jclouds.compute.predicates.NodePredicates.inGroup;
 import java.io.Closeable;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.jclouds.ContextBuilder;
 import org.jclouds.compute.ComputeService;
 import org.jclouds.compute.ComputeServiceContext;
 import org.jclouds.compute.config.ComputeServiceProperties;
 import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.examples.rackspace.StatusPoller;
+import org.jclouds.openstack.nova.v2_0.NovaApi;
+import org.jclouds.openstack.nova.v2_0.NovaAsyncApi;
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.rest.RestContext;
+
+import com.google.common.base.Predicate;
 
 /**
  * This example destroys the server created in the CreateServer example. 
+ * 
+ * In parallel mode it uses a ServerTeardown, which deletes all of the servers at once and watches them all with a
+ * single listing per poll.
  *  
  * @author Everett Toews
  */
 public class DeleteServer implements Closeable {
    private ComputeService compute;
+   private RestContext<NovaApi, NovaAsyncApi> nova;
 
    /**
     * To get a username and API key see http://www.jclouds.org/documentation/quickstart/rackspace/
     * 
     * The first argument (args[0]) must be your username
     * The second argument (args[1]) must be your API key
+    * The optional third argument (args[2]) is "parallel" to delete the servers with a ServerTeardown
     */
    public static void main(String[] args) {
       DeleteServer deleteServer = new DeleteServer();
 
       try {
          deleteServer.init(args);
-         deleteServer.deleteServer();
+
+         if (args.length > 2 && "parallel".equals(args[2])) {
+            deleteServer.deleteServersInParallel();
+         }
+         else {
+            deleteServer.deleteServer();
+         }
+      }
+      catch (Exception e) {
+         e.printStackTrace();
       }
       finally {
          deleteServer.close();
@@ -75,6 +98,7 @@ public class DeleteServer implements Closeable {
             .overrides(overrides)
             .buildView(ComputeServiceContext.class);
       compute = context.getComputeService();
+      nova = context.unwrap();
    }
 
    /**
@@ -93,6 +117,32 @@ public class DeleteServer implements Closeable {
       }
    }
 
+   /**
+    * This will delete all servers in group {@link Constants.NAME} at once
+    */
+   private void deleteServersInParallel() throws InterruptedException, ExecutionException {
+      System.out.println("Delete Servers In Parallel");
+
+      StatusPoller poller = new StatusPoller(2, 30, TimeUnit.SECONDS);
+
+      try {
+         ServerTeardown teardown = new ServerTeardown(nova, Constants.ZONE, poller, 10, TimeUnit.MINUTES);
+
+         // Servers in a group are named after the group, followed by a dash and a suffix
+         ServerTeardown.Report report = teardown.teardown(new Predicate<Server>() {
+            @Override
+            public boolean apply(Server server) {
+               return server.getName().startsWith(Constants.NAME + "-");
+            }
+         });
+
+         System.out.println(report);
+      }
+      finally {
+         poller.close();
+      }
+   }
+
    /**
     * Always close your service when you're done with it.
     */
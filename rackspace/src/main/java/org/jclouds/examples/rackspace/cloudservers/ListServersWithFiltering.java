@@ -29,17 +29,25 @@ import org.jclouds.compute.ComputeServiceContext;
 import org.jclouds.compute.domain.ComputeMetadata;
 import org.jclouds.compute.domain.NodeMetadata;
 import org.jclouds.compute.predicates.NodePredicates;
+import org.jclouds.openstack.nova.v2_0.NovaApi;
+import org.jclouds.openstack.nova.v2_0.NovaAsyncApi;
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.rest.RestContext;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 
 /**
  * This example lists servers filtered by Predicates. Run the CreateServer example before this to get some results.
+ * 
+ * The last listing does the same filtering with a ServerQuery, which has Nova filter the servers by name and status
+ * and only gets the details of the servers that match.
  *  
  * @author Everett Toews
  */
 public class ListServersWithFiltering implements Closeable {
    private ComputeService compute;
+   private RestContext<NovaApi, NovaAsyncApi> nova;
 
    /**
     * To get a username and API key see http://www.jclouds.org/documentation/quickstart/rackspace/
@@ -54,6 +62,7 @@ public class ListServersWithFiltering implements Closeable {
          listServersWithFiltering.init(args);
          listServersWithFiltering.listServersByParentLocationId();
          listServersWithFiltering.listServersByNameStartsWith();
+         listServersWithFiltering.listServersWithServerQuery();
       }
       finally {
          listServersWithFiltering.close();
@@ -72,6 +81,7 @@ public class ListServersWithFiltering implements Closeable {
             .credentials(username, apiKey)
             .buildView(ComputeServiceContext.class);
       compute = context.getComputeService();
+      nova = context.unwrap();
    }
 
    private void listServersByParentLocationId() {
@@ -95,6 +105,21 @@ public class ListServersWithFiltering implements Closeable {
       }
    }
 
+   private void listServersWithServerQuery() {
+      System.out.println("List Servers With Server Query");
+
+      long start = System.currentTimeMillis();
+      ServerQuery query = new ServerQuery(nova, Constants.ZONE)
+            .nameStartsWith("jclouds-ex")
+            .status(Server.Status.ACTIVE);
+
+      for (Server server: query.details()) {
+         System.out.println("  " + server);
+      }
+
+      System.out.println("  Took " + (System.currentTimeMillis() - start) + " ms");
+   }
+
    /**
     * Always close your service when you're done with it.
     */
@@ -22,6 +22,7 @@ import static com.google.common.io.Closeables.closeQuietly;
 
 import java.io.Closeable;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import org.jclouds.ContextBuilder;
 import org.jclouds.compute.ComputeService;
@@ -32,11 +33,16 @@ import org.jclouds.openstack.nova.v2_0.domain.Server;
 import org.jclouds.openstack.nova.v2_0.features.ServerApi;
 import org.jclouds.rest.RestContext;
 
+import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 /**
  * This example sets, gets, updates, and deletes metadata from a server.
+ * 
+ * In bulk mode it does the same to every server whose name starts with jclouds-example, using BulkMetadata to run
+ * the requests concurrently under a rate limit.
  *  
  * @author Everett Toews
  */
@@ -50,6 +56,8 @@ public class ServerMetadata implements Closeable {
     * 
     * The first argument (args[0]) must be your username
     * The second argument (args[1]) must be your API key
+    * The optional third argument (args[2]) is "bulk" to change the metadata of all the example servers at once
+    * The optional fourth argument (args[3]) is the number of metadata requests per second in bulk mode (default 2)
     */
    public static void main(String[] args) {
       ServerMetadata serverMetadata = new ServerMetadata();
@@ -57,11 +65,20 @@ public class ServerMetadata implements Closeable {
       try {
          serverMetadata.init(args);
 
-         Server server = serverMetadata.getServer();
-         serverMetadata.setMetadata(server);
-         serverMetadata.updateMetadata(server);
-         serverMetadata.deleteMetadata(server);
-         serverMetadata.getMetadata(server);
+         if (args.length > 2 && "bulk".equals(args[2])) {
+            double requestsPerSecond = args.length > 3 ? Double.parseDouble(args[3]) : 2;
+            serverMetadata.bulkMetadata(requestsPerSecond);
+         }
+         else {
+            Server server = serverMetadata.getServer();
+            serverMetadata.setMetadata(server);
+            serverMetadata.updateMetadata(server);
+            serverMetadata.deleteMetadata(server);
+            serverMetadata.getMetadata(server);
+         }
+      }
+      catch (Exception e) {
+         e.printStackTrace();
       }
       finally {
          serverMetadata.close();
@@ -132,6 +149,31 @@ public class ServerMetadata implements Closeable {
       System.out.println("  " + metadata);
    }
 
+   private void bulkMetadata(double requestsPerSecond) throws InterruptedException, ExecutionException {
+      System.out.println("Bulk Metadata");
+
+      Predicate<Server> exampleServers = new Predicate<Server>() {
+         @Override
+         public boolean apply(Server server) {
+            return server.getName().startsWith(Constants.NAME);
+         }
+      };
+
+      BulkMetadata bulkMetadata = new BulkMetadata(serverApi, 10, requestsPerSecond);
+
+      try {
+         System.out.println(bulkMetadata.apply(exampleServers, BulkMetadata.Operation.set(
+               ImmutableMap.<String, String> of("key1", "value1", "key2", "value2", "key3", "value3"))));
+         System.out.println(bulkMetadata.apply(exampleServers, BulkMetadata.Operation.update(
+               ImmutableMap.<String, String> of("key2", "new-value2"))));
+         System.out.println(bulkMetadata.apply(exampleServers, BulkMetadata.Operation.delete(
+               ImmutableSet.of("key3"))));
+      }
+      finally {
+         bulkMetadata.close();
+      }
+   }
+
    /**
     * Always close your service when you're done with it.
     */
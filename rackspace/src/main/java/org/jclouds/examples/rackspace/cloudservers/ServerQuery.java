@@ -0,0 +1,194 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudservers;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import org.jclouds.openstack.nova.v2_0.NovaApi;
+import org.jclouds.openstack.nova.v2_0.NovaAsyncApi;
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.openstack.v2_0.domain.Resource;
+import org.jclouds.openstack.v2_0.options.PaginationOptions;
+import org.jclouds.rest.RestContext;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Lists servers with the filtering done by Nova instead of by jclouds.
+ *
+ * ComputeService.listNodesDetailsMatching gets the details of every server in the account and then applies the
+ * predicate. This query sends the name and status filters as query parameters on the summary listing, so only the
+ * matching servers come back, and then gets the details of just those servers, all at once through the async API.
+ * Details are cached per query, so iterating the results twice doesn't get them twice.
+ */
+public class ServerQuery {
+   private static final int PAGE_SIZE = 1000;
+
+   private final RestContext<NovaApi, NovaAsyncApi> nova;
+   private final String zone;
+   private final ConcurrentMap<String, ListenableFuture<? extends Server>> details = Maps.newConcurrentMap();
+   private String namePrefix;
+   private Server.Status status;
+
+   public ServerQuery(RestContext<NovaApi, NovaAsyncApi> nova, String zone) {
+      this.nova = checkNotNull(nova, "nova");
+      this.zone = checkNotNull(zone, "zone");
+   }
+
+   public ServerQuery nameStartsWith(String namePrefix) {
+      this.namePrefix = checkNotNull(namePrefix, "namePrefix");
+      return this;
+   }
+
+   public ServerQuery status(Server.Status status) {
+      this.status = checkNotNull(status, "status");
+      return this;
+   }
+
+   /**
+    * @return the id and name of every matching server, without their details
+    */
+   public List<Resource> summaries() {
+      List<Resource> summaries = Lists.newArrayList();
+      String marker = null;
+
+      while (true) {
+         FilterOptions options = new FilterOptions();
+         options.limit(PAGE_SIZE);
+
+         if (marker != null) {
+            options.marker(marker);
+         }
+         if (namePrefix != null) {
+            options.name("^" + escapeRegex(namePrefix));
+         }
+         if (status != null) {
+            options.status(status);
+         }
+
+         List<Resource> page = ImmutableList.<Resource> copyOf(nova.getApi().getServerApiForZone(zone).list(options));
+
+         for (Resource resource: page) {
+            // Nova matches the name as a regular expression, check it here too in case a provider ignores the filter
+            if (namePrefix == null || resource.getName().startsWith(namePrefix)) {
+               summaries.add(resource);
+            }
+         }
+
+         if (page.size() < PAGE_SIZE) {
+            return summaries;
+         }
+
+         marker = Iterables.getLast(page).getId();
+      }
+   }
+
+   /**
+    * Starts getting the details of every matching server in parallel. The returned servers are in the order of the
+    * listing and each one blocks only until its own details have arrived.
+    */
+   public FluentIterable<Server> details() {
+      List<ListenableFuture<? extends Server>> futures = Lists.newArrayList();
+
+      for (Resource resource: summaries()) {
+         futures.add(detail(resource.getId()));
+      }
+
+      return FluentIterable.from(futures).transform(new Function<ListenableFuture<? extends Server>, Server>() {
+         @Override
+         public Server apply(ListenableFuture<? extends Server> future) {
+            return getUnchecked(future);
+         }
+      }).filter(new Predicate<Server>() {
+         @Override
+         public boolean apply(Server server) {
+            // The status filter applies to the summary listing, the server may have moved on since then
+            return server != null && (status == null || server.getStatus() == status);
+         }
+      });
+   }
+
+   private ListenableFuture<? extends Server> detail(String id) {
+      ListenableFuture<? extends Server> detail = details.get(id);
+
+      if (detail == null) {
+         detail = nova.getAsyncApi().getServerApiForZone(zone).get(id);
+         ListenableFuture<? extends Server> existing = details.putIfAbsent(id, detail);
+         detail = existing == null ? detail : existing;
+      }
+
+      return detail;
+   }
+
+   /**
+    * Nova uses Python regular expressions, which don't understand \Q...\E, so each special character is escaped.
+    */
+   private static String escapeRegex(String value) {
+      StringBuilder escaped = new StringBuilder();
+
+      for (char c: value.toCharArray()) {
+         if (!Character.isLetterOrDigit(c) && c != '-' && c != '_') {
+            escaped.append('\\');
+         }
+         escaped.append(c);
+      }
+
+      return escaped.toString();
+   }
+
+   private static <T> T getUnchecked(ListenableFuture<T> future) {
+      try {
+         return future.get();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw Throwables.propagate(e);
+      }
+      catch (ExecutionException e) {
+         throw Throwables.propagate(e.getCause());
+      }
+   }
+
+   /**
+    * The name and status query parameters of the server listing, which jclouds has no options for.
+    */
+   private static class FilterOptions extends PaginationOptions {
+      FilterOptions name(String regex) {
+         queryParameters.put("name", regex);
+         return this;
+      }
+
+      FilterOptions status(Server.Status status) {
+         queryParameters.put("status", status.name());
+         return this;
+      }
+   }
+}
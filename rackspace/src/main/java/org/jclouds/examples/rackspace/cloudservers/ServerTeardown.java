@@ -0,0 +1,186 @@
+/**
+ * Licensed to jclouds, Inc. (jclouds) under one or more
+ * contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  jclouds licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jclouds.examples.rackspace.cloudservers;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jclouds.examples.rackspace.StatusPoller;
+import org.jclouds.openstack.nova.v2_0.NovaApi;
+import org.jclouds.openstack.nova.v2_0.NovaAsyncApi;
+import org.jclouds.openstack.nova.v2_0.domain.Server;
+import org.jclouds.rest.RestContext;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Deletes every server that matches a predicate and waits until they are all gone.
+ *
+ * All of the deletes are sent at once through the async API. Instead of polling each server on its own, the servers
+ * are handed to a StatusPoller, which lists the servers of the zone once per tick and checks off every server that
+ * is no longer listed, so a tick costs one API call whether there are 2 servers or 200.
+ */
+public class ServerTeardown {
+   private final RestContext<NovaApi, NovaAsyncApi> nova;
+   private final String zone;
+   private final StatusPoller poller;
+   private final long timeoutMillis;
+
+   public ServerTeardown(RestContext<NovaApi, NovaAsyncApi> nova, String zone, StatusPoller poller, long timeout,
+         TimeUnit unit) {
+      this.nova = checkNotNull(nova, "nova");
+      this.zone = checkNotNull(zone, "zone");
+      this.poller = checkNotNull(poller, "poller");
+      this.timeoutMillis = unit.toMillis(timeout);
+   }
+
+   public Report teardown(Predicate<? super Server> selector) throws InterruptedException, ExecutionException {
+      final long start = System.currentTimeMillis();
+      int listCallsBefore = poller.getListCalls();
+      List<Server> servers = ImmutableList.copyOf(
+            nova.getApi().getServerApiForZone(zone).listInDetail().concat().filter(selector));
+      List<ListenableFuture<Boolean>> deletes = Lists.newArrayList();
+
+      for (Server server: servers) {
+         deletes.add(nova.getAsyncApi().getServerApiForZone(zone).delete(server.getId()));
+      }
+
+      List<Boolean> accepted = Futures.successfulAsList(deletes).get();
+      final Map<Server, Long> gone = Maps.newConcurrentMap();
+      List<ListenableFuture<Server>> waits = Lists.newArrayList();
+      List<Server> rejected = Lists.newArrayList();
+
+      for (int i = 0; i < servers.size(); i++) {
+         final Server server = servers.get(i);
+
+         if (!Boolean.TRUE.equals(accepted.get(i))) {
+            rejected.add(server);
+            continue;
+         }
+
+         ListenableFuture<Server> wait = poller.await(StatusPoller.servers(nova.getApi(), zone), server.getId(),
+               new Predicate<Server>() {
+            @Override
+            public boolean apply(Server listed) {
+               return listed == null || listed.getStatus() == Server.Status.DELETED;
+            }
+         });
+         Futures.addCallback(wait, new FutureCallback<Server>() {
+            @Override
+            public void onSuccess(Server listed) {
+               gone.put(server, System.currentTimeMillis() - start);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+               // Cancelled at the timeout, reported as remaining
+            }
+         });
+         waits.add(wait);
+      }
+
+      try {
+         Futures.successfulAsList(waits).get(timeoutMillis, TimeUnit.MILLISECONDS);
+      }
+      catch (TimeoutException e) {
+         // Whatever isn't gone yet is reported as remaining
+      }
+
+      List<Server> remaining = Lists.newArrayList();
+      for (int i = 0, w = 0; i < servers.size(); i++) {
+         if (!rejected.contains(servers.get(i)) && !waits.get(w++).isDone()) {
+            remaining.add(servers.get(i));
+         }
+      }
+      for (ListenableFuture<Server> wait: waits) {
+         wait.cancel(false);
+      }
+
+      int apiCalls = servers.size() + poller.getListCalls() - listCallsBefore;
+      return new Report(gone, remaining, rejected, apiCalls, System.currentTimeMillis() - start);
+   }
+
+   public static class Report {
+      private final Map<Server, Long> gone;
+      private final List<Server> remaining;
+      private final List<Server> rejected;
+      private final int apiCalls;
+      private final long millis;
+
+      Report(Map<Server, Long> gone, List<Server> remaining, List<Server> rejected, int apiCalls, long millis) {
+         this.gone = ImmutableMap.copyOf(gone);
+         this.remaining = ImmutableList.copyOf(remaining);
+         this.rejected = ImmutableList.copyOf(rejected);
+         this.apiCalls = apiCalls;
+         this.millis = millis;
+      }
+
+      /**
+       * @return the servers that are gone, with the milliseconds it took each one to disappear
+       */
+      public Map<Server, Long> getGone() {
+         return gone;
+      }
+
+      /**
+       * @return the servers that were still listed when the timeout ran out
+       */
+      public List<Server> getRemaining() {
+         return remaining;
+      }
+
+      /**
+       * @return the servers whose delete request failed
+       */
+      public List<Server> getRejected() {
+         return rejected;
+      }
+
+      @Override
+      public String toString() {
+         StringBuilder report = new StringBuilder();
+
+         for (Map.Entry<Server, Long> entry: gone.entrySet()) {
+            report.append(String.format("  %s gone after %.1f s%n", entry.getKey().getName(),
+                  entry.getValue() / 1000.0));
+         }
+         for (Server server: remaining) {
+            report.append("  ").append(server.getName()).append(" still listed").append(String.format("%n"));
+         }
+         for (Server server: rejected) {
+            report.append("  ").append(server.getName()).append(" delete failed").append(String.format("%n"));
+         }
+
+         return report.append(String.format("  %d servers deleted in %.1f s with %d API calls", gone.size(),
+               millis / 1000.0, apiCalls)).toString();
+      }
+   }
+}